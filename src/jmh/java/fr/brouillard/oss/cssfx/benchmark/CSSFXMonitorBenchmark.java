@@ -0,0 +1,152 @@
+package fr.brouillard.oss.cssfx.benchmark;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javafx.collections.FXCollections;
+import javafx.scene.Scene;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.brouillard.oss.cssfx.impl.CSSFXMonitor;
+import fr.brouillard.oss.cssfx.impl.URIToPathConverters;
+
+/**
+ * Cost of the registration of a scene graph when the monitoring starts, and of the reload of a modified source,
+ * for the eager &amp; lazy monitoring modes, with a time-sliced registration or a registration at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CSSFXMonitorBenchmark {
+    @State(Scope.Thread)
+    public abstract static class Graph {
+        @Param({"1000", "10000", "100000"})
+        public int nodes;
+        @Param({"5", "50"})
+        public int depth;
+        @Param({"100"})
+        public int styledEvery;
+        @Param({"false", "true"})
+        public boolean lazy;
+        @Param({"2", "0"})
+        public int sliceBudgetMillis;
+
+        Scene scene;
+        CSSFXMonitor monitor;
+
+        @Setup(Level.Trial)
+        public void startToolkit() throws Exception {
+            FXBenchmarks.startToolkit();
+        }
+
+        CSSFXMonitor newMonitor() throws Exception {
+            scene = FXBenchmarks.onFX(() -> new Scene(FXBenchmarks.graph(nodes, depth, styledEvery)));
+            CSSFXMonitor m = new CSSFXMonitor();
+            m.addAllConverters(Arrays.asList(URIToPathConverters.DEFAULT_CONVERTERS));
+            m.setScenes(FXCollections.singletonObservableList(scene));
+            m.setLazyMonitoring(lazy);
+            m.setRegistrationSliceBudget(Duration.ofMillis(sliceBudgetMillis));
+            return m;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Unstarted extends Graph {
+        @Setup(Level.Invocation)
+        public void createMonitor() throws Exception {
+            monitor = newMonitor();
+        }
+
+        @TearDown(Level.Invocation)
+        public void stopMonitor() throws Exception {
+            // let the registration finish & the swaps queued by the start be applied before the next invocation
+            monitor.initialRegistration().get(1, TimeUnit.MINUTES);
+            FXBenchmarks.onFX(() -> null);
+            monitor.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Started extends Graph {
+        @Setup(Level.Trial)
+        public void startMonitor() throws Exception {
+            startToolkit();
+            monitor = newMonitor();
+            FXBenchmarks.onFX(() -> {
+                monitor.start();
+                return null;
+            });
+            monitor.initialRegistration().get(1, TimeUnit.MINUTES);
+            FXBenchmarks.onFX(() -> null);
+        }
+
+        @TearDown(Level.Trial)
+        public void stopMonitor() {
+            monitor.stop();
+        }
+    }
+
+    /**
+     * Time the JavaFX Application Thread is blocked by the start, the first slice of the registration.
+     */
+    @Benchmark
+    public Object start(Unstarted graph) throws Exception {
+        return FXBenchmarks.onFX(() -> {
+            graph.monitor.start();
+            return graph.monitor;
+        });
+    }
+
+    /**
+     * Time until the whole scene graph is registered, the slices being run one per pulse.
+     */
+    @Benchmark
+    public Object registration(Unstarted graph) throws Exception {
+        FXBenchmarks.onFX(() -> {
+            graph.monitor.start();
+            return null;
+        });
+        return graph.monitor.initialRegistration().get(1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public int reload(Started graph) throws Exception {
+        return FXBenchmarks.onFX(() -> graph.monitor.reload(FXBenchmarks.STYLESHEET_SOURCE));
+    }
+}
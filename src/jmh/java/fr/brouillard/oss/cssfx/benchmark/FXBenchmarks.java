@@ -0,0 +1,95 @@
+package fr.brouillard.oss.cssfx.benchmark;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javafx.application.Platform;
+import javafx.scene.Parent;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.StackPane;
+
+/**
+ * Helpers shared by the benchmarks needing JavaFX; benchmarks are run headless on Monocle (see the jmh profile of the pom).
+ */
+final class FXBenchmarks {
+    /**
+     * A CSS of the test resources, mapped by the default converters to its source in src/test/resources.
+     */
+    static final String STYLESHEET_URI = FXBenchmarks.class.getResource("/fr/brouillard/oss/cssfx/test/bottom.css").toExternalForm();
+    static final Path STYLESHEET_SOURCE = Paths.get("src/test/resources/fr/brouillard/oss/cssfx/test/bottom.css").toAbsolutePath().normalize();
+
+    private FXBenchmarks() {
+    }
+
+    static synchronized void startToolkit() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            Platform.startup(started::countDown);
+        } catch (IllegalStateException alreadyStarted) {
+            return;
+        }
+        Platform.setImplicitExit(false);
+        started.await();
+    }
+
+    static <T> T onFX(Callable<T> task) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result.get(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Builds a scene graph made of branches of the given depth hanging from a root, until the given number of nodes is reached.
+     *
+     * @param nodes the number of nodes of the graph
+     * @param depth the depth of each branch
+     * @param styledEvery one node every styledEvery nodes references {@link #STYLESHEET_URI}
+     * @return the root of the graph
+     */
+    static Parent graph(int nodes, int depth, int styledEvery) {
+        Pane root = new StackPane();
+        Pane parent = root;
+        for (int i = 1; i < nodes; i++) {
+            if ((i - 1) % depth == 0) {
+                parent = root;
+            }
+            Pane node = new StackPane();
+            if (i % styledEvery == 0) {
+                node.getStylesheets().add(STYLESHEET_URI);
+            }
+            parent.getChildren().add(node);
+            parent = node;
+        }
+        return root;
+    }
+}
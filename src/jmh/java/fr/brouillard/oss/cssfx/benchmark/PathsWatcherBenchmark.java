@@ -0,0 +1,102 @@
+package fr.brouillard.oss.cssfx.benchmark;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+
+/**
+ * Latency between the modification of a monitored file and the dispatch of its actions, coalescing disabled.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathsWatcherBenchmark {
+    @Param({"1", "100"})
+    public int monitoredFiles;
+
+    private Path directory;
+    private Path modifiedFile;
+    private PathsWatcher watcher;
+    private final AtomicLong dispatched = new AtomicLong();
+    private long writes = 0;
+
+    @Setup(Level.Trial)
+    public void startWatcher() throws IOException {
+        directory = Files.createTempDirectory("cssfx-watcher").toRealPath();
+        watcher = new PathsWatcher(Duration.ZERO, Duration.ZERO);
+        for (int i = 0; i < monitoredFiles; i++) {
+            Path file = Files.createFile(directory.resolve("style-" + i + ".css"));
+            watcher.monitor(directory, file, dispatched::incrementAndGet);
+            modifiedFile = file;
+        }
+        watcher.watch();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopWatcher() throws IOException {
+        watcher.stop();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long modifyAndWaitDispatch() throws IOException {
+        long before = dispatched.get();
+        Files.write(modifiedFile, String.valueOf(writes++).getBytes(StandardCharsets.UTF_8));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (dispatched.get() == before) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("no dispatch for " + modifiedFile);
+            }
+            LockSupport.parkNanos(10_000);
+        }
+        return dispatched.get();
+    }
+}
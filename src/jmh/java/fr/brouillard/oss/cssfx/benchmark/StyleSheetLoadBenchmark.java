@@ -0,0 +1,108 @@
+package fr.brouillard.oss.cssfx.benchmark;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javafx.css.CssParser;
+import javafx.css.Stylesheet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.brouillard.oss.cssfx.impl.StyleSheetCompiler;
+
+/**
+ * Cost of loading a modified theme on the JavaFX Application Thread, parsing its text versus loading the binary version
+ * compiled in background by {@link StyleSheetCompiler}; the compilation itself, run on the watcher thread, is measured apart.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StyleSheetLoadBenchmark {
+    @Param({"1000", "10000"})
+    public int rules;
+
+    private Path directory;
+    private byte[] content;
+    private URL cssURL;
+    private URL bssURL;
+
+    @Setup(Level.Trial)
+    public void createTheme() throws IOException {
+        StringBuilder css = new StringBuilder();
+        for (int i = 0; i < rules; i++) {
+            css.append(".theme-").append(i).append(", .theme-").append(i).append(":hover > .label {\n")
+                    .append("    -fx-background-color: linear-gradient(to bottom, #").append(String.format("%06x", i * 97 % 0xffffff)).append(", derive(-fx-base, -20%));\n")
+                    .append("    -fx-padding: ").append(i % 8).append(" 4 ").append(i % 8).append(" 4;\n")
+                    .append("    -fx-font-size: ").append(10 + i % 6).append("px;\n")
+                    .append("}\n");
+        }
+        content = css.toString().getBytes(StandardCharsets.UTF_8);
+        directory = Files.createTempDirectory("cssfx-benchmark");
+        Path cssFile = Files.write(directory.resolve("theme.css"), content);
+        Path bssFile = Files.write(directory.resolve("theme.bss"), new StyleSheetCompiler().compile(cssFile, content));
+        cssURL = cssFile.toUri().toURL();
+        bssURL = bssFile.toUri().toURL();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTheme() throws IOException {
+        Files.delete(directory.resolve("theme.css"));
+        Files.delete(directory.resolve("theme.bss"));
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public Stylesheet parseText() throws IOException {
+        return new CssParser().parse(cssURL);
+    }
+
+    @Benchmark
+    public Stylesheet loadBinary() throws IOException {
+        return Stylesheet.loadBinary(bssURL);
+    }
+
+    @Benchmark
+    public byte[] compile() {
+        // a new compiler each time, the cache would hide the compilation
+        return new StyleSheetCompiler().compile(directory.resolve("theme.css"), content);
+    }
+}
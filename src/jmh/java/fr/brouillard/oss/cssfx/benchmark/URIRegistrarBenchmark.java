@@ -0,0 +1,95 @@
+package fr.brouillard.oss.cssfx.benchmark;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.brouillard.oss.cssfx.impl.CSSFXMonitor.URIRegistrar;
+import fr.brouillard.oss.cssfx.impl.StyleSheetRegistry;
+import fr.brouillard.oss.cssfx.impl.StyleSheetSwapBatcher;
+import fr.brouillard.oss.cssfx.impl.URIToPathConverters;
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+
+/**
+ * Cost of the registration of a stylesheet, as done for each stylesheets list found in the scene graph.
+ * Swaps are applied directly on the benchmark thread instead of the JavaFX Application Thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class URIRegistrarBenchmark {
+    private static final String UNMAPPED_URI = "jar:file:/opt/app/lib/theme.jar!/styles/dark.css";
+
+    private PathsWatcher watcher;
+    private URIRegistrar registrar;
+
+    @Setup(Level.Trial)
+    public void createRegistrar() {
+        StyleSheetSwapBatcher batcher = new StyleSheetSwapBatcher(Runnable::run);
+        watcher = new PathsWatcher();
+        registrar = new URIRegistrar(Arrays.asList(URIToPathConverters.DEFAULT_CONVERTERS), watcher, new StyleSheetRegistry(batcher), batcher);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopWatcher() {
+        watcher.stop();
+    }
+
+    @TearDown(Level.Iteration)
+    public void releaseCollectedLists() {
+        registrar.cleanup();
+    }
+
+    @Benchmark
+    public ObservableList<String> registerMapped() {
+        ObservableList<String> stylesheets = FXCollections.observableArrayList(FXBenchmarks.STYLESHEET_URI);
+        registrar.register(FXBenchmarks.STYLESHEET_URI, stylesheets);
+        return stylesheets;
+    }
+
+    @Benchmark
+    public ObservableList<String> registerUnmapped() {
+        ObservableList<String> stylesheets = FXCollections.observableArrayList(UNMAPPED_URI);
+        registrar.register(UNMAPPED_URI, stylesheets);
+        return stylesheets;
+    }
+}
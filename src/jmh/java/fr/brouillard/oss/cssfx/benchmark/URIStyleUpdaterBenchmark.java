@@ -0,0 +1,91 @@
+package fr.brouillard.oss.cssfx.benchmark;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.brouillard.oss.cssfx.impl.CSSFXMonitor.URIStyleUpdater;
+import fr.brouillard.oss.cssfx.impl.StyleSheetSwapBatcher;
+
+/**
+ * Cost of the swaps requested when a source file changes, from the updaters of each stylesheets list to the application of the batch.
+ * The batch is applied on the benchmark thread instead of the JavaFX Application Thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class URIStyleUpdaterBenchmark {
+    private static final String ORIGINAL_URI = "file:/project/target/classes/styles/app.css";
+    private static final String SOURCE_URI = "file:/project/src/main/resources/styles/app.css";
+
+    @Param({"1", "100"})
+    public int lists;
+    @Param({"1", "10"})
+    public int stylesheetsPerList;
+
+    private final List<URIStyleUpdater> updaters = new ArrayList<>();
+    private Runnable pendingBatch;
+
+    @Setup(Level.Trial)
+    public void createLists() {
+        StyleSheetSwapBatcher batcher = new StyleSheetSwapBatcher(batch -> pendingBatch = batch);
+        for (int i = 0; i < lists; i++) {
+            ObservableList<String> stylesheets = FXCollections.observableArrayList();
+            for (int j = 1; j < stylesheetsPerList; j++) {
+                stylesheets.add("file:/project/target/classes/styles/other-" + j + ".css");
+            }
+            stylesheets.add(ORIGINAL_URI);
+            updaters.add(new URIStyleUpdater(ORIGINAL_URI, SOURCE_URI, stylesheets, batcher));
+        }
+    }
+
+    @Benchmark
+    public void swapAndApply() {
+        for (URIStyleUpdater updater : updaters) {
+            updater.run();
+        }
+        Runnable batch = pendingBatch;
+        pendingBatch = null;
+        batch.run();
+    }
+}
@@ -0,0 +1,111 @@
+package fr.brouillard.oss.cssfx.benchmark;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.brouillard.oss.cssfx.api.URIToPathConverter;
+import fr.brouillard.oss.cssfx.impl.URIToPathConverters;
+
+/**
+ * Cost of the default converters for each kind of URI they handle, without the resolution cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class URIToPathConverterBenchmark {
+    @Param({"maven", "maven-test", "gradle", "intellij", "jar", "unmapped"})
+    public String uriKind;
+
+    private Path project;
+    private String uri;
+    private final URIToPathConverter[] converters = URIToPathConverters.DEFAULT_CONVERTERS;
+
+    @Setup(Level.Trial)
+    public void createProject() throws IOException {
+        project = Files.createTempDirectory("cssfx-converters");
+        for (String source : new String[] {"src/main/resources/styles/app.css", "src/test/resources/styles/app.css"}) {
+            Path file = project.resolve(source);
+            Files.createDirectories(file.getParent());
+            Files.createFile(file);
+        }
+        String projectURI = project.toUri().toString();
+        switch (uriKind) {
+        case "maven":
+            uri = projectURI + "target/classes/styles/app.css";
+            break;
+        case "maven-test":
+            uri = projectURI + "target/test-classes/styles/app.css";
+            break;
+        case "gradle":
+            uri = projectURI + "build/resources/main/styles/app.css";
+            break;
+        case "intellij":
+            uri = projectURI + "out/production/resources/styles/app.css";
+            break;
+        case "jar":
+            uri = "jar:" + projectURI + "target/app.jar!/styles/app.css";
+            break;
+        default:
+            uri = projectURI + "lib/styles/app.css";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProject() throws IOException {
+        try (Stream<Path> files = Files.walk(project)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Path convert() {
+        for (URIToPathConverter converter : converters) {
+            Path source = converter.convert(uri);
+            if (source != null) {
+                return source;
+            }
+        }
+        return null;
+    }
+}
@@ -20,10 +20,14 @@ package fr.brouillard.oss.cssfx;
  * #L%
  */
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -34,9 +38,15 @@ import javafx.stage.Stage;
 import javafx.stage.Window;
 import fr.brouillard.oss.cssfx.api.URIToPathConverter;
 import fr.brouillard.oss.cssfx.impl.CSSFXMonitor;
+import fr.brouillard.oss.cssfx.impl.CSSFXMonitor.StartupSwaps;
+import fr.brouillard.oss.cssfx.impl.TimeSlicedQueue;
 import fr.brouillard.oss.cssfx.impl.URIToPathConverters;
+import fr.brouillard.oss.cssfx.impl.URIToPathConverters.RuleBasedConverter;
 import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger;
 import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+import fr.brouillard.oss.cssfx.impl.monitoring.CSSFXExecutors;
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher.WatchMode;
 
 public class CSSFX {
     // prevent multiple global starts of CSSFX
@@ -45,7 +55,7 @@ public class CSSFX {
     /**
      * Directly start monitoring the CSS of the application using defaults:
      * <ul>
-     * <li>standard source file detectors: Maven, Gradle, execution from built JAR (details in {@link URIToPathConverters#DEFAULT_CONVERTERS})</li>
+     * <li>standard source file detectors: Maven, Gradle, IntelliJ, execution from built JAR (details in {@link URIToPathConverters#DEFAULT_CONVERTERS})</li>
      * <li>detection activated on all stages of the application, including the ones that will appear later on</li>
      * </ul> 
      * @return a Runnable object to stop CSSFX monitoring
@@ -62,7 +72,7 @@ public class CSSFX {
     /**
      * Directly start monitoring CSS for the given Window.
      * <ul>
-     * <li>standard source file detectors: Maven, Gradle, execution from built JAR (details in {@link URIToPathConverters#DEFAULT_CONVERTERS})</li>
+     * <li>standard source file detectors: Maven, Gradle, IntelliJ, execution from built JAR (details in {@link URIToPathConverters#DEFAULT_CONVERTERS})</li>
      * <li>detection activated on the given Window only (and its children)</li>
      * </ul> 
      * @param window the window that will be monitored
@@ -77,7 +87,7 @@ public class CSSFX {
     /**
      * Directly start monitoring CSS for the given Scene.
      * <ul>
-     * <li>standard source file detectors: Maven, Gradle, execution from built JAR (details in {@link URIToPathConverters#DEFAULT_CONVERTERS})</li>
+     * <li>standard source file detectors: Maven, Gradle, IntelliJ, execution from built JAR (details in {@link URIToPathConverters#DEFAULT_CONVERTERS})</li>
      * <li>detection activated on the scene only (and its children)</li>
      * </ul> 
      * @param scene the scene that will be monitored
@@ -92,7 +102,7 @@ public class CSSFX {
     /**
      * Directly start monitoring CSS for the given node.
      * <ul>
-     * <li>standard source file detectors: Maven, Gradle, execution from built JAR (details in {@link URIToPathConverters#DEFAULT_CONVERTERS})</li>
+     * <li>standard source file detectors: Maven, Gradle, IntelliJ, execution from built JAR (details in {@link URIToPathConverters#DEFAULT_CONVERTERS})</li>
      * <li>detection activated on the node only (and its children)</li>
      * </ul> 
      * @param node the node that will be monitored
@@ -146,6 +156,16 @@ public class CSSFX {
     public static CSSFXConfig addConverter(URIToPathConverter converter) {
         return new CSSFXConfig().addConverter(converter);
     }
+
+    /**
+     * Register a new rule mapping the files of a build output directory to source directories.
+     * @param outputDirectory the output directory, relative to the project root, for example "target/classes"
+     * @param sourceDirectories the source directories to search in order, relative to the project root, for example "src/main/resources"
+     * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+     */
+    public static CSSFXConfig addConverterRule(String outputDirectory, String... sourceDirectories) {
+        return new CSSFXConfig().addConverterRule(outputDirectory, sourceDirectories);
+    }
     
     /**
      * Stores information before finally building/starting the CSS monitoring.
@@ -155,9 +175,23 @@ public class CSSFX {
     public static class CSSFXConfig {
         // LinkedHashSet will preserve ordering
         private final Set<URIToPathConverter> converters = new LinkedHashSet<URIToPathConverter>(Arrays.asList(URIToPathConverters.DEFAULT_CONVERTERS));
+        private RuleBasedConverter converterRules = URIToPathConverters.rules();
         private Window restrictedToWindow = null;
         private Scene restrictedToScene = null;
         private Node restrictedToNode = null;
+        private Duration eventsQuietPeriod = PathsWatcher.DEFAULT_QUIET_PERIOD;
+        private Duration eventsMaxLatency = PathsWatcher.DEFAULT_MAX_LATENCY;
+        private WatchMode watchMode = null;
+        private boolean watchSourceRoots = false;
+        private Executor executor = CSSFXExecutors.shared();
+        private ThreadFactory threadFactory = null;
+        private boolean lazyMonitoring = false;
+        private boolean validation = true;
+        private boolean inMemoryStylesheets = false;
+        private boolean binaryStylesheets = false;
+        private Duration registrationSliceBudget = TimeSlicedQueue.DEFAULT_SLICE_BUDGET;
+        private boolean asyncResolution = true;
+        private StartupSwaps startupSwaps = StartupSwaps.BATCHED;
         
         CSSFXConfig() {
         }
@@ -193,7 +227,165 @@ public class CSSFX {
             converters.add(converter);
             return this;
         }
+
+        /**
+         * Register a new rule mapping the files of a build output directory to source directories.
+         * All the registered rules are compiled into a single converter, used after the other converters.
+         * @param outputDirectory the output directory, relative to the project root, for example "target/classes"
+         * @param sourceDirectories the source directories to search in order, relative to the project root, for example "src/main/resources"
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig addConverterRule(String outputDirectory, String... sourceDirectories) {
+            converterRules = converterRules.withOutputDirectory(outputDirectory, sourceDirectories);
+            return this;
+        }
         
+        /**
+         * Defines how the file events received for a same CSS file are grouped before the CSS is reloaded.
+         * A single save from an editor often produces several events, grouping them allows to reload each CSS once.
+         * @param quietPeriod duration without new events on a file before its CSS is reloaded, {@link Duration#ZERO} disables the grouping
+         * @param maxLatency maximum duration between the first event on a file and the reload of its CSS, even if events continue to arrive
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig coalesceEvents(Duration quietPeriod, Duration maxLatency) {
+            if (quietPeriod == null || maxLatency == null || quietPeriod.isNegative() || maxLatency.isNegative()) {
+                throw new IllegalArgumentException("quiet period & max latency must be positive durations");
+            }
+            this.eventsQuietPeriod = quietPeriod;
+            this.eventsMaxLatency = maxLatency;
+            return this;
+        }
+
+        /**
+         * Defines how the modifications of the CSS files are detected.
+         * The default {@link WatchMode#NATIVE} relies on the file system events; {@link WatchMode#POLLING} is required on file systems that do not
+         * deliver them, like network file systems or container bind mounts, and {@link WatchMode#AUTO} switches to it by itself when a modification
+         * is not notified by the file system.
+         * When not called, the mode is read from the {@value PathsWatcher#WATCH_MODE_PROPERTY} system property.
+         * @param watchMode the detection mode to use
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig watchMode(WatchMode watchMode) {
+            this.watchMode = watchMode;
+            return this;
+        }
+
+        /**
+         * Defines the executor running the background work of CSSFX: watching of the files, registration of the source roots &amp; detection of the cleanups.
+         * The watching occupies a task of the executor as long as the monitoring runs.
+         * By default all the monitors share an executor running on virtual threads with JDK 21+, and on a pool of daemon threads before.
+         * @param executor the executor to use
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            this.threadFactory = null;
+            return this;
+        }
+
+        /**
+         * Runs the background work of CSSFX on threads created by the given factory, each task on a new thread.
+         * The thread detecting the garbage collected stylesheets lists is created by the factory too.
+         * @param threadFactory the factory creating the threads
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         * @see #executor(Executor)
+         */
+        public CSSFXConfig threadFactory(ThreadFactory threadFactory) {
+            executor(CSSFXExecutors.fromThreadFactory(Objects.requireNonNull(threadFactory)));
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        /**
+         * Watches the source roots found by the converters (for example {@code src/main/resources}) with all their sub directories, including the ones created later,
+         * instead of registering the directory of each CSS file. The roots are registered once, in background, so the cost of the monitoring start
+         * does not depend on the number of directories containing CSS files.
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig watchSourceRoots() {
+            this.watchSourceRoots = true;
+            return this;
+        }
+
+        /**
+         * Activates the lazy monitoring: instead of listening to every node of the scene graph, CSSFX looks up the stylesheets once at start
+         * (and when a new window is shown) to watch their source directories, and walks the monitored scenes only when a source file changes.
+         * This removes the monitoring overhead while the application runs, at the cost of a scene graph walk on each CSS modification.
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig lazyMonitoring() {
+            this.lazyMonitoring = true;
+            return this;
+        }
+
+        /**
+         * Reloads the modified CSS files without parsing them first.
+         * By default each modified CSS file is parsed in background: a file having syntax errors is not reloaded
+         * so that the application keeps the last valid version of its styles, and a file whose rules did not change is not swapped.
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig noValidation() {
+            this.validation = false;
+            return this;
+        }
+
+        /**
+         * Serves the modified CSS files from memory: each modified file is read once in background and the stylesheets are swapped
+         * to a versioned {@code cssfx:} URL of its content, so that JavaFX does not read the disk again during the reload.
+         * Useful on slow disks or network home directories; ignored if the {@code cssfx:} URL handler cannot be loaded by the application.
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig inMemoryStylesheets() {
+            this.inMemoryStylesheets = true;
+            return this;
+        }
+
+        /**
+         * Compiles each modified CSS file in background to the binary format of JavaFX, that JavaFX loads much faster than it parses text.
+         * The binary version is served from memory, this option activates {@link #inMemoryStylesheets()}.
+         * Files using {@code @import}, {@code @font-face} or {@code url()} are served as text.
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig binaryStylesheets() {
+            this.binaryStylesheets = true;
+            this.inMemoryStylesheets = true;
+            return this;
+        }
+
+        /**
+         * Defines the time the registration of the scene graph may spend on the JavaFX Application Thread per pulse, 2 ms by default.
+         * The windows, scenes &amp; nodes are registered in slices run on successive pulses, so that starting CSSFX on a large scene graph does not freeze the application.
+         * @param sliceBudget the budget of each slice, {@link Duration#ZERO} to register the whole scene graph at once
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig registrationSliceBudget(Duration sliceBudget) {
+            this.registrationSliceBudget = Objects.requireNonNull(sliceBudget);
+            return this;
+        }
+
+        /**
+         * Resolves the sources of the stylesheets on the JavaFX Application Thread, when their lists change.
+         * By default the converters run, and the directories of the sources are registered in the file watcher, in background,
+         * the lookups of a pulse being batched; only the swaps of the stylesheets touch the JavaFX Application Thread.
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig synchronousResolution() {
+            this.asyncResolution = false;
+            return this;
+        }
+
+        /**
+         * Defines how the stylesheets found when the monitoring starts are swapped to their source. By default ({@link StartupSwaps#BATCHED}) the swaps
+         * of each scene are held until its subtree is registered and its sources resolved, then applied in a single batch costing one CSS pass of the scene.
+         * {@link StartupSwaps#ON_FIRST_CHANGE} keeps the original stylesheets until their source changes, for no CSS pass at startup.
+         * @param startupSwaps the startup mode to use
+         * @return a {@link CSSFXConfig} object as a builder to allow further configuration
+         */
+        public CSSFXConfig startupSwaps(StartupSwaps startupSwaps) {
+            this.startupSwaps = Objects.requireNonNull(startupSwaps);
+            return this;
+        }
+
         /**
          * Start monitoring CSS resources with the config parameters collected until now. 
          * @return a Runnable object to stop CSSFX monitoring
@@ -226,8 +418,11 @@ public class CSSFX {
                     case "jul":
                         CSSFXLogger.jul();
                         break;
+                    case "async":
+                        CSSFXLogger.async();
+                        break;
                     default:
-                        System.err.println("[CSSFX] invalid value for cssfx.log.type, '" + logType + "' is not allowed. Select one in: " + Arrays.asList("noop", "console", "jul"));
+                        System.err.println("[CSSFX] invalid value for cssfx.log.type, '" + logType + "' is not allowed. Select one in: " + Arrays.asList("noop", "console", "jul", "async"));
                         break;
                     }
                 } else {
@@ -258,6 +453,21 @@ public class CSSFX {
             try {
                 mon = monitorBuilder.call();
                 mon.addAllConverters(converters);
+                if (!converterRules.isEmpty()) {
+                    mon.addConverter(converterRules);
+                }
+                mon.setEventsCoalescing(eventsQuietPeriod, eventsMaxLatency);
+                mon.setWatchMode(watchMode);
+                mon.setWatchSourceRoots(watchSourceRoots);
+                mon.setExecutor(executor);
+                mon.setThreadFactory(threadFactory);
+                mon.setLazyMonitoring(lazyMonitoring);
+                mon.setValidation(validation);
+                mon.setInMemoryStylesheets(inMemoryStylesheets);
+                mon.setBinaryStylesheets(binaryStylesheets);
+                mon.setRegistrationSliceBudget(registrationSliceBudget);
+                mon.setAsyncResolution(asyncResolution);
+                mon.setStartupSwaps(startupSwaps);
                 mon.start();
                 return mon::stop;
             } catch (Exception e) {
@@ -22,6 +22,8 @@ package fr.brouillard.oss.cssfx.api;
 
 
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * An URIToPathConverter is used to associate a resource file from the classpath to a physical file on disk.
@@ -31,4 +33,30 @@ import java.nio.file.Path;
 @FunctionalInterface
 public interface URIToPathConverter {
     public Path convert(String uri);
+
+    /**
+     * Asynchronous variant of {@link #convert(String)}, called from a background thread of CSSFX and never from the JavaFX Application Thread.
+     * Converters doing slow lookups (remote file systems, build tools...) can override it to complete the conversion later.
+     * The default implementation converts on the calling thread.
+     * @param uri the URI to convert
+     * @param executor the executor running the background work of CSSFX, usable to complete the conversion
+     * @return a future completed with the source file, or with null if the URI is not converted by this converter
+     */
+    default CompletableFuture<Path> convertAsync(String uri, Executor executor) {
+        try {
+            return CompletableFuture.completedFuture(convert(uri));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Gives the root directory of the sources containing a file converted by this converter, for example {@code /project/src/main/resources}.
+     * Knowing the roots allows to watch them once for all the files they contain, see {@link fr.brouillard.oss.cssfx.CSSFX.CSSFXConfig#watchSourceRoots()}.
+     * @param sourceFile an absolute &amp; normalized path returned by {@link #convert(String)}
+     * @return the source root containing the file, or null if unknown
+     */
+    default Path sourceRoot(Path sourceFile) {
+        return null;
+    }
 }
@@ -23,34 +23,45 @@ package fr.brouillard.oss.cssfx.impl;
 
 import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
 import java.util.regex.Pattern;
 
 import javafx.application.Platform;
-import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ReadOnlyObjectProperty;
-import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.css.Stylesheet;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
@@ -61,8 +72,15 @@ import fr.brouillard.oss.cssfx.api.URIToPathConverter;
 import fr.brouillard.oss.cssfx.impl.events.CSSFXEvent;
 import fr.brouillard.oss.cssfx.impl.events.CSSFXEvent.EventType;
 import fr.brouillard.oss.cssfx.impl.events.CSSFXEventListener;
+import fr.brouillard.oss.cssfx.impl.events.RegistrationProgress;
+import fr.brouillard.oss.cssfx.impl.events.SourceReload;
+import fr.brouillard.oss.cssfx.impl.StyleSheetSwapBatcher.BatchListener;
+import fr.brouillard.oss.cssfx.impl.metrics.CSSFXMetrics;
 import fr.brouillard.oss.cssfx.impl.monitoring.CleanupDetector;
+import fr.brouillard.oss.cssfx.impl.monitoring.CSSFXExecutors;
 import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher.WatchMode;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
 
 /**
  * CSSFXMonitor is the central controller of the CSS monitoring feature.   
@@ -70,10 +88,41 @@ import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
  * @author Matthieu Brouillard
  */
 public class CSSFXMonitor {
+    // a single instance, so that the cleanups of the monitors collected together are grouped in one runLater
+    private static final Executor FX_THREAD = Platform::runLater;
+    // maximum time the startup swaps wait for the sources resolved in background, and for the registration of their scene
+    private static final long STARTUP_SWAPS_MAX_DELAY_SECONDS = 10;
+    // sources modified less than this delay before their registration are not parsed at registration, file systems having coarse modification times
+    private static final long SEED_MIN_AGE_MILLIS = 2000;
+
+    /**
+     * How the stylesheets found when the monitoring starts are swapped to their source.
+     * Each swap of a stylesheets list makes JavaFX reapply the CSS below it: swapping the lists one by one, as they are registered,
+     * restyles the scenes on as many pulses as there are batches of registrations.
+     */
+    public enum StartupSwaps {
+        /**
+         * The lists are swapped as soon as they are registered.
+         */
+        IMMEDIATE,
+        /**
+         * The swaps of each scene known at start are held until its subtree is registered &amp; the sources resolved, then applied in a single batch,
+         * costing one CSS pass per scene. Held swaps are released anyway after a few seconds. The lists registered later are swapped immediately.
+         */
+        BATCHED,
+        /**
+         * The lists are not swapped at registration, the application keeps its original stylesheets until their source changes.
+         */
+        ON_FIRST_CHANGE
+    }
+
     private PathsWatcher pw;
+    private final AtomicBoolean stopped = new AtomicBoolean();
 
     // keep insertion order
     private List<URIToPathConverter> knownConverters = new CopyOnWriteArrayList<>();
+    // resolutions of the stylesheets URIs with the known converters, forgotten when the converters change
+    private final URIResolutionCache resolutionCache = new URIResolutionCache();
     private ObservableList<? extends Window> windows;
     private ObservableList<Scene> scenes;
     private ObservableList<Node> nodes;
@@ -81,6 +130,42 @@ public class CSSFXMonitor {
     private Set<Scene> knownScenes = Collections.newSetFromMap(new WeakHashMap<>());
     private Set<Window> knownWindows = Collections.newSetFromMap(new WeakHashMap<>());
     private Set<Node> knownNodes = Collections.newSetFromMap(new WeakHashMap<>());
+    private Duration eventsQuietPeriod = PathsWatcher.DEFAULT_QUIET_PERIOD;
+    private Duration eventsMaxLatency = PathsWatcher.DEFAULT_MAX_LATENCY;
+    private WatchMode watchMode;
+    private boolean watchSourceRoots = false;
+    private Executor executor = CSSFXExecutors.shared();
+    private ThreadFactory threadFactory;
+    // detects the collected stylesheets lists, on the threads of the monitor once started
+    private CleanupDetector cleanupDetector = CleanupDetector.shared();
+    private boolean lazyMonitoring = false;
+    private boolean validation = true;
+    private boolean inMemoryStylesheets = false;
+    private boolean binaryStylesheets = false;
+    // lazy monitoring only, accessed from the JavaFX Application Thread
+    private final Set<Path> lazyDirectories = new HashSet<>();
+    private URIRegistrar lazyResolver;
+    private CSSFXMetrics metrics;
+    // first file event of the modified sources whose stylesheets are not yet updated
+    private final Map<Path, Long> pendingReloads = new ConcurrentHashMap<>();
+    private ObjIntConsumer<Path> reloadListener;
+    // last valid version of the sources, seeded in background at registration then updated by the watcher thread
+    private final Map<Path, Stylesheet> parsedSources = new ConcurrentHashMap<>();
+    private final Set<Path> seededSources = ConcurrentHashMap.newKeySet();
+    private StyleSheetValidator validator;
+    private BatchListener batchListener;
+    private Duration registrationSliceBudget = TimeSlicedQueue.DEFAULT_SLICE_BUDGET;
+    private boolean asyncResolution = true;
+    private SourceResolver sourceResolver;
+    private StartupSwaps startupSwaps = StartupSwaps.BATCHED;
+    // swaps of the registrations, held by the gate during the startup
+    private GatedExecutor startupGate;
+    private StyleSheetSwapBatcher registrationBatcher;
+    // BATCHED startup only, accessed from the JavaFX Application Thread: the swaps of each scene known at start, held until its subtree is registered
+    private final Map<Scene, SceneStartup> sceneStartups = new WeakHashMap<>();
+    // windows, scenes & nodes to register, accessed from the JavaFX Application Thread
+    private TimeSlicedQueue<Object> registrations;
+    private final CompletableFuture<Void> initialRegistration = new CompletableFuture<>();
 
     public CSSFXMonitor() {
     }
@@ -103,18 +188,165 @@ public class CSSFXMonitor {
 
     public void addAllConverters(Collection<URIToPathConverter> converters) {
         knownConverters.addAll(converters);
+        resolutionCache.clear();
     }
 
     public void addAllConverters(URIToPathConverter... converters) {
         knownConverters.addAll(Arrays.asList(converters));
+        resolutionCache.clear();
     }
 
     public void addConverter(URIToPathConverter newConverter) {
         knownConverters.add(newConverter);
+        resolutionCache.clear();
     }
 
     public void removeConverter(URIToPathConverter converter) {
         knownConverters.remove(converter);
+        resolutionCache.clear();
+    }
+
+    /**
+     * Defines how file events are coalesced before CSS are reloaded, see {@link PathsWatcher#PathsWatcher(Duration, Duration)}.
+     * Must be called before {@link #start()}.
+     *
+     * @param quietPeriod duration without new events on a file before its CSS are reloaded
+     * @param maxLatency maximum duration between the first event on a file and the reload of its CSS
+     */
+    public void setEventsCoalescing(Duration quietPeriod, Duration maxLatency) {
+        this.eventsQuietPeriod = quietPeriod;
+        this.eventsMaxLatency = maxLatency;
+    }
+
+    /**
+     * Defines how the modifications of the CSS files are detected, must be called before {@link #start()}.
+     * By default the mode is read from the {@value PathsWatcher#WATCH_MODE_PROPERTY} system property, see {@link PathsWatcher#defaultWatchMode()}.
+     *
+     * @param watchMode the detection mode, null to use the default one
+     */
+    public void setWatchMode(WatchMode watchMode) {
+        this.watchMode = watchMode;
+    }
+
+    /**
+     * Defines the executor running the background work of the monitor, must be called before {@link #start()}.
+     * By default all the monitors share {@link CSSFXExecutors#shared()}, running on virtual threads when available.
+     *
+     * @param executor the executor to use
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Defines the factory of the thread detecting the garbage collected stylesheets lists, must be called before {@link #start()}.
+     * By default a daemon thread is shared by all the monitors not defining a factory.
+     *
+     * @param threadFactory the factory to use, null for the default thread
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Activates the recursive watching of the source roots, must be called before {@link #start()}.
+     * Instead of registering the directory of each source file, the source roots given by the converters
+     * (see {@link URIToPathConverter#sourceRoot(Path)}) are registered once, in background, with all their sub directories.
+     * Source files without known root are still watched through their directory.
+     *
+     * @param watchSourceRoots true to watch the source roots
+     */
+    public void setWatchSourceRoots(boolean watchSourceRoots) {
+        this.watchSourceRoots = watchSourceRoots;
+    }
+
+    /**
+     * Activates the lazy monitoring mode, must be called before {@link #start()}.
+     * In this mode no listener is installed on the scene graph: the stylesheets are looked up once at start
+     * to know the source directories to watch, then the monitored scenes are walked only when a source file changes,
+     * to reload the stylesheets lists referencing it.
+     * Stylesheets whose source directory is not referenced when the monitoring starts, or when a new window is shown, are not reloaded.
+     *
+     * @param lazyMonitoring true to activate the lazy monitoring
+     */
+    public void setLazyMonitoring(boolean lazyMonitoring) {
+        this.lazyMonitoring = lazyMonitoring;
+    }
+
+    /**
+     * Activates the validation of the modified CSS files, must be called before {@link #start()}.
+     * When activated, which is the default, each modified CSS file is parsed on the watcher thread before being reloaded:
+     * a file having syntax errors is not reloaded, the stylesheets keeping its last valid version,
+     * and a file whose rules did not change since its last valid version is not swapped, see {@link StyleSheetDiff}.
+     *
+     * @param validation false to reload the modified files without parsing them first
+     */
+    public void setValidation(boolean validation) {
+        this.validation = validation;
+    }
+
+    /**
+     * Activates the serving of the modified CSS files from memory, must be called before {@link #start()}.
+     * Each modified CSS file is read once on the watcher thread and published in the {@link StyleSheetStore},
+     * the stylesheets lists being swapped to the versioned {@value StyleSheetStore#SCHEME} URL of its content
+     * so that JavaFX does not read the disk during the reload.
+     * Ignored, with a warning, if the {@value StyleSheetStore#SCHEME} URLs are not supported in the running application.
+     *
+     * @param inMemoryStylesheets true to serve the modified files from memory
+     */
+    public void setInMemoryStylesheets(boolean inMemoryStylesheets) {
+        this.inMemoryStylesheets = inMemoryStylesheets;
+    }
+
+    /**
+     * Activates the compilation of the modified CSS files to the binary format of JavaFX, must be called before {@link #start()}.
+     * Each modified CSS file is compiled on the watcher thread and published with its text in the {@link StyleSheetStore},
+     * JavaFX loading the binary version instead of parsing the text on its thread. Requires {@link #setInMemoryStylesheets(boolean)}.
+     *
+     * @param binaryStylesheets true to compile the modified files
+     */
+    public void setBinaryStylesheets(boolean binaryStylesheets) {
+        this.binaryStylesheets = binaryStylesheets;
+    }
+
+    /**
+     * Defines the time the registration of the scene graph may spend on the JavaFX Application Thread per pulse, must be called before {@link #start()}.
+     * The windows, scenes &amp; nodes are registered from a queue, in slices of the given budget run on successive pulses,
+     * so that registering a large scene graph does not freeze the application; see {@link #initialRegistration()}.
+     *
+     * @param sliceBudget the budget of each slice, zero to register the whole scene graph at once
+     */
+    public void setRegistrationSliceBudget(Duration sliceBudget) {
+        this.registrationSliceBudget = sliceBudget;
+    }
+
+    /**
+     * Defines where the sources of the stylesheets are resolved &amp; registered in the watcher, must be called before {@link #start()}.
+     * By default they are resolved in background by a {@link SourceResolver}, the lookups of a pulse being batched, and only the swaps of the
+     * stylesheets touch the JavaFX Application Thread; when deactivated, the converters &amp; the registrations of the watched directories
+     * run on the JavaFX Application Thread when a stylesheets list changes.
+     *
+     * @param asyncResolution false to resolve the sources on the JavaFX Application Thread
+     */
+    public void setAsyncResolution(boolean asyncResolution) {
+        this.asyncResolution = asyncResolution;
+    }
+
+    /**
+     * Defines how the stylesheets found when the monitoring starts are swapped to their source, must be called before {@link #start()}.
+     * The number of batches applied is exposed by {@link CSSFXMetrics#getRegistrationBatches()}.
+     *
+     * @param startupSwaps the startup mode, {@link StartupSwaps#BATCHED} by default
+     */
+    public void setStartupSwaps(StartupSwaps startupSwaps) {
+        this.startupSwaps = startupSwaps;
+    }
+
+    /**
+     * @return a future completed, on the JavaFX Application Thread, once the scene graph known at start is registered; cancelled if the monitor is stopped before
+     */
+    public CompletableFuture<Void> initialRegistration() {
+        return initialRegistration;
     }
 
     public void addEventListener(CSSFXEventListener listener) {
@@ -128,9 +360,45 @@ public class CSSFXMonitor {
     public void start() {
         logger(CSSFXMonitor.class).info("CSS Monitoring is about to start");
 
-        pw = new PathsWatcher();
+        pw = new PathsWatcher(eventsQuietPeriod, eventsMaxLatency, (watchMode == null) ? PathsWatcher.defaultWatchMode() : watchMode);
+        pw.setExecutor(executor);
+        // newly created files may be the source of css previously resolved without source
+        pw.addCreationListener(resolutionCache::fileCreated);
 
+        metrics = new CSSFXMetrics(pw);
+        cleanupDetector = new CleanupDetector(executor, threadFactory);
+        boolean inMemory = inMemoryStylesheets && StyleSheetStore.isSupported();
+        validator = validation ? new StyleSheetValidator() : null;
+        if (validation || inMemory) {
+            StyleSheetCompiler compiler = (inMemory && binaryStylesheets) ? new StyleSheetCompiler() : null;
+            pw.addDispatchFilter(file -> prepareSource(validator, inMemory, compiler, file));
+        }
+        pw.addDispatchListener(this::fileChanged);
+        reloadListener = this::reloadScheduled;
+        StyleSheetRegistry.shared().addReloadListener(pw, reloadListener);
+        batchListener = this::batchApplied;
+        StyleSheetSwapBatcher.shared().addBatchListener(batchListener);
+        metrics.register();
+
+        sourceResolver = asyncResolution ? new SourceResolver(FX_THREAD, executor) : null;
+        startupGate = new GatedExecutor(FX_THREAD);
+        registrationBatcher = new StyleSheetSwapBatcher(startupGate);
+        registrationBatcher.addBatchListener((updatedLists, listsBySourceURI) -> metrics.registrationBatchApplied(updatedLists));
+        if (startupSwaps != StartupSwaps.BATCHED || lazyMonitoring) {
+            startupGate.open();
+        } else {
+            initialRegistration.thenRun(this::releaseStartupSwaps);
+            // a scene graph registered too slowly must not hold its swaps forever
+            CompletableFuture.delayedExecutor(STARTUP_SWAPS_MAX_DELAY_SECONDS, TimeUnit.SECONDS, FX_THREAD).execute(this::openStartupGates);
+        }
+        registrations = new TimeSlicedQueue<>(this::registerItem, registrationSliceBudget, TimeSlicedQueue.nextPulse());
+        registrations.setSliceListener(this::registrationSliceProcessed);
         Runnable starter = () -> {
+            if (lazyMonitoring) {
+                startLazyMonitoring();
+                initialRegistration.complete(null);
+                return;
+            }
             // start to monitor stage changes
             if (windows != null) {
                 monitorWindows(windows);
@@ -139,6 +407,10 @@ public class CSSFXMonitor {
             } else if (nodes != null) {
                 monitorChildren(nodes);
             }
+            if (registrations.pendingCount() == 0) {
+                // nothing to register
+                initialRegistration.complete(null);
+            }
         };
 
         if (Platform.isFxApplicationThread()) {
@@ -151,8 +423,387 @@ public class CSSFXMonitor {
         logger(CSSFXMonitor.class).info("CSS Monitoring started");
     }
 
+    /**
+     * Stops the monitor, doing nothing if it was never started or is already stopped.
+     */
     public void stop() {
+        if (pw == null || !stopped.compareAndSet(false, true)) {
+            return;
+        }
         pw.stop();
+        if (sourceResolver != null) {
+            sourceResolver.stop();
+        }
+        TimeSlicedQueue<Object> pendingRegistrations = registrations;
+        PathsWatcher stoppedWatcher = pw;
+        Runnable unregistration = () -> {
+            pendingRegistrations.clear();
+            openStartupGates();
+            // the lists of this monitor must not be reloaded by the watchers of the other monitors
+            StyleSheetRegistry.shared().unregister(stoppedWatcher);
+        };
+        if (Platform.isFxApplicationThread()) {
+            unregistration.run();
+        } else {
+            Platform.runLater(unregistration);
+        }
+        initialRegistration.cancel(false);
+        // the held batch references the stylesheets lists
+        startupGate.open();
+        parsedSources.clear();
+        seededSources.clear();
+        resolutionCache.clear();
+        StyleSheetRegistry.shared().removeReloadListener(stoppedWatcher, reloadListener);
+        StyleSheetSwapBatcher.shared().removeBatchListener(batchListener);
+        metrics.unregister();
+    }
+
+    /**
+     * @return the metrics of the monitor, also exposed through JMX, null if the monitor has not been started
+     */
+    public CSSFXMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reloads the given source file in the stylesheets lists of this monitor referencing it.
+     * Must be called from the JavaFX Application Thread.
+     *
+     * @param sourceFile a source file
+     * @return the number of stylesheets lists to be updated
+     */
+    public int reload(Path sourceFile) {
+        Path source = sourceFile.toAbsolutePath().normalize();
+        pendingReloads.putIfAbsent(source, System.nanoTime());
+        if (!lazyMonitoring) {
+            return StyleSheetRegistry.shared().reload(source, pw);
+        }
+
+        StyleSheetStore store = StyleSheetStore.shared();
+        String sourceURI = store.uriOf(source);
+        StyleSheetSwapBatcher batcher = StyleSheetSwapBatcher.shared();
+        int[] updated = {0};
+        walkStylesheets(cssURIs -> {
+            boolean matched = false;
+            for (String uri : cssURIs) {
+                if (source.equals(store.sourceOf(uri)) || lazySource(uri).filter(source::equals).isPresent()) {
+                    batcher.swap(cssURIs, uri, sourceURI);
+                    matched = true;
+                }
+            }
+            if (matched) {
+                updated[0]++;
+            }
+        });
+        if (logger(CSSFXMonitor.class).isEnabled(LogLevel.DEBUG)) {
+            logger(CSSFXMonitor.class).debug("%d stylesheets lists reference source[%s]", updated[0], source);
+        }
+        // called on the JavaFX Application Thread, the swaps cannot have been applied yet
+        reloadScheduled(source, updated[0]);
+        return updated[0];
+    }
+
+    private void fileChanged(Path file, long firstEventNanos) {
+        if (lazyMonitoring && !file.getFileName().toString().endsWith(".css")) {
+            return;
+        }
+        metrics.fileChanged(file);
+        pendingReloads.putIfAbsent(file, firstEventNanos);
+        if (!eventListeners.isEmpty()) {
+            eventNotify(CSSFXEvent.newEvent(EventType.FILE_CHANGED, new SourceReload(file, firstEventNanos, 0)));
+        }
+    }
+
+    /**
+     * Reads the modified file once, to validate it and to publish it, called by the watcher thread before the reload.
+     * @param validator the validator to use, null if the modified files are not validated
+     * @param compiler the compiler of the published files, null if they are not compiled
+     * @return false if the file must not be reloaded
+     */
+    private boolean prepareSource(StyleSheetValidator validator, boolean inMemory, StyleSheetCompiler compiler, Path file) {
+        if (!file.getFileName().toString().endsWith(".css")) {
+            return true;
+        }
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file);
+        } catch (IOException e) {
+            // deleted or being replaced, JavaFX would not load it either
+            logger(CSSFXMonitor.class).warn("source[%s] cannot be read, keeping its last valid version: %s", file, e);
+            metrics.sourceRejected();
+            return false;
+        }
+
+        if (validator != null) {
+            List<String> errors = new ArrayList<>();
+            Stylesheet stylesheet = validator.parse(file, content, errors);
+            if (!errors.isEmpty()) {
+                metrics.sourceRejected();
+                logger(CSSFXMonitor.class).warn("source[%s] has %d CSS errors, keeping its last valid version: %s", file, errors.size(), errors);
+                if (!eventListeners.isEmpty()) {
+                    eventNotify(CSSFXEvent.newEvent(EventType.FILE_REJECTED, file));
+                }
+                return false;
+            }
+
+            StyleSheetDiff diff = StyleSheetDiff.between(file, parsedSources.put(file, stylesheet), stylesheet);
+            if (logger(CSSFXMonitor.class).isEnabled(LogLevel.DEBUG)) {
+                logger(CSSFXMonitor.class).debug("%s", diff);
+            }
+            if (!eventListeners.isEmpty()) {
+                eventNotify(CSSFXEvent.newEvent(EventType.RULES_COMPARED, diff));
+            }
+            if (diff.getStrategy() == StyleSheetDiff.Strategy.NO_SWAP) {
+                metrics.rulesUnchanged();
+                return false;
+            }
+        }
+
+        if (inMemory) {
+            byte[] compiled = (compiler == null) ? null : compiler.compile(file, content);
+            if (compiler != null && compiled == null) {
+                metrics.sourceNotCompiled();
+            }
+            StyleSheetStore.shared().publish(file, content, compiled);
+        }
+        return true;
+    }
+
+    /**
+     * Parses in background a source swapped at registration, so that its first modification is compared to the rules JavaFX loaded.
+     * Files modified around their registration are left unseeded: their first modification is then always swapped.
+     * @param registeredAt the registration time, in milliseconds since the epoch
+     */
+    private void seedParsedSource(Path file, long registeredAt) {
+        if (!file.getFileName().toString().endsWith(".css") || !seededSources.add(file)) {
+            return;
+        }
+        StyleSheetValidator seedValidator = validator;
+        executor.execute(() -> {
+            try {
+                if (Files.getLastModifiedTime(file).toMillis() > registeredAt - SEED_MIN_AGE_MILLIS) {
+                    return;
+                }
+                List<String> errors = new ArrayList<>();
+                Stylesheet stylesheet = seedValidator.parse(file, errors);
+                if (stylesheet != null && errors.isEmpty()) {
+                    // a modification already parsed by the watcher thread is more recent
+                    parsedSources.putIfAbsent(file, stylesheet);
+                }
+            } catch (IOException e) {
+                logger(CSSFXMonitor.class).debug("source[%s] cannot be read to be compared later: %s", file, e);
+            }
+        });
+    }
+
+    private void reloadScheduled(Path source, int stylesheetsLists) {
+        // nothing will be applied if no list references the source
+        Long fileEvent = (stylesheetsLists == 0) ? pendingReloads.remove(source) : pendingReloads.get(source);
+        if (fileEvent != null && !eventListeners.isEmpty()) {
+            eventNotify(CSSFXEvent.newEvent(EventType.RELOAD_SCHEDULED, new SourceReload(source, fileEvent, stylesheetsLists)));
+        }
+    }
+
+    private void batchApplied(int updatedLists, Map<String, Integer> listsBySourceURI) {
+        if (pendingReloads.isEmpty()) {
+            // swaps of registrations, not of reloads
+            return;
+        }
+        long now = System.nanoTime();
+        for (Map.Entry<String, Integer> applied : listsBySourceURI.entrySet()) {
+            Path source = StyleSheetStore.shared().sourceOf(applied.getKey());
+            Long fileEvent = (source == null) ? null : pendingReloads.remove(source);
+            if (fileEvent != null) {
+                metrics.reloadApplied(now - fileEvent);
+                if (!eventListeners.isEmpty()) {
+                    eventNotify(CSSFXEvent.newEvent(EventType.STYLESHEET_RELOADED, new SourceReload(source, fileEvent, applied.getValue())));
+                }
+            }
+        }
+    }
+
+    private void startLazyMonitoring() {
+        lazyResolver = new URIRegistrar(knownConverters, pw);
+        lazyResolver.setWatchSourceRoots(watchSourceRoots);
+        lazyResolver.setResolutionCache(resolutionCache);
+        if (windows != null) {
+            // windows list is the only one listened, to discover the sources used by new windows
+            windows.addListener((ListChangeListener<Window>) c -> {
+                while (c.next()) {
+                    if (c.wasAdded()) {
+                        for (Window addedWindow : c.getAddedSubList()) {
+                            walkScene(addedWindow.getScene(), this::watchLazySources);
+                        }
+                    }
+                }
+            });
+        }
+        walkStylesheets(this::watchLazySources);
+    }
+
+    private void watchLazySources(ObservableList<String> stylesheets) {
+        for (String uri : stylesheets) {
+            lazySource(uri).map(Path::getParent).ifPresent(directory -> {
+                if (lazyDirectories.add(directory)) {
+                    lazyResolver.watchSourceRoot(directory);
+                    pw.monitorDirectory(directory, this::lazySourceChanged);
+                }
+            });
+        }
+    }
+
+    private Optional<Path> lazySource(String uri) {
+        return Optional.ofNullable(lazyResolver.resolve(uri));
+    }
+
+    private void lazySourceChanged(Path modifiedFile) {
+        if (modifiedFile.getFileName().toString().endsWith(".css")) {
+            Platform.runLater(() -> reload(modifiedFile));
+        }
+    }
+
+    private void walkStylesheets(Consumer<ObservableList<String>> visitor) {
+        if (windows != null) {
+            for (Window window : windows) {
+                walkScene(window.getScene(), visitor);
+            }
+        } else if (scenes != null) {
+            for (Scene scene : scenes) {
+                walkScene(scene, visitor);
+            }
+        } else if (nodes != null) {
+            for (Node node : nodes) {
+                walkNode(node, visitor);
+            }
+        }
+    }
+
+    private static void walkScene(Scene scene, Consumer<ObservableList<String>> visitor) {
+        if (scene != null) {
+            visitor.accept(scene.getStylesheets());
+            walkNode(scene.getRoot(), visitor);
+        }
+    }
+
+    private static void walkNode(Node node, Consumer<ObservableList<String>> visitor) {
+        Deque<Node> toVisit = new ArrayDeque<>();
+        if (node != null) {
+            toVisit.push(node);
+        }
+        while (!toVisit.isEmpty()) {
+            Node current = toVisit.pop();
+            if (current instanceof Parent) {
+                Parent p = (Parent) current;
+                visitor.accept(p.getStylesheets());
+                for (Node child : p.getChildrenUnmodifiable()) {
+                    toVisit.push(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues the registration of a window, scene or node, processed now unless a slice is already running.
+     */
+    private void register(Object item) {
+        SceneStartup startup = sceneStartup(item);
+        if (startup != null) {
+            startup.pendingItems++;
+            registrations.add(new StartupItem(item, startup));
+        } else {
+            registrations.add(item);
+        }
+        registrations.processSlice();
+    }
+
+    /**
+     * @return the startup of the scene of an item registered while the startup swaps are held, created if needed; null otherwise
+     */
+    private SceneStartup sceneStartup(Object item) {
+        if (startupGate == null || startupGate.isOpen() || initialRegistration.isDone()) {
+            return null;
+        }
+        Scene scene = (item instanceof Scene) ? (Scene) item
+                : (item instanceof Node) ? ((Node) item).getScene()
+                : (item instanceof Window) ? ((Window) item).getScene() : null;
+        if (scene == null) {
+            return null;
+        }
+        return sceneStartups.computeIfAbsent(scene, this::newSceneStartup);
+    }
+
+    private SceneStartup newSceneStartup(Scene scene) {
+        String name = "scene-" + (sceneStartups.size() + 1);
+        if (scene.getWindow() instanceof Stage && ((Stage) scene.getWindow()).getTitle() != null) {
+            name += " (" + ((Stage) scene.getWindow()).getTitle() + ")";
+        }
+        SceneStartup startup = new SceneStartup(name, new GatedExecutor(FX_THREAD));
+        startup.batcher.addBatchListener((updatedLists, listsBySourceURI) -> metrics.registrationBatchApplied(startup.name, updatedLists));
+        return startup;
+    }
+
+    /**
+     * @return the batcher of the swaps of the lists of a scene, the one of its startup if its swaps are held
+     */
+    private StyleSheetSwapBatcher registrationBatcherOf(Scene scene) {
+        SceneStartup startup = (scene == null) ? null : sceneStartups.get(scene);
+        return (startup == null) ? registrationBatcher : startup.batcher;
+    }
+
+    private void registerItem(Object item) {
+        if (item instanceof StartupItem) {
+            StartupItem startupItem = (StartupItem) item;
+            registerItem(startupItem.item);
+            // the items of the subtree are queued while registering their parent
+            if (--startupItem.startup.pendingItems == 0) {
+                logger(CSSFXMonitor.class).debug("%s registered, releasing its startup swaps", startupItem.startup.name);
+                whenSourcesResolved().thenRun(startupItem.startup.gate::open);
+            }
+        } else if (item instanceof Node) {
+            registerNode((Node) item);
+        } else if (item instanceof Scene) {
+            registerScene((Scene) item);
+        } else if (item instanceof Window) {
+            registerWindow((Window) item);
+        }
+    }
+
+    private CompletableFuture<Void> whenSourcesResolved() {
+        CompletableFuture<Void> resolved = (sourceResolver == null) ? CompletableFuture.completedFuture(null) : sourceResolver.whenIdle();
+        // a converter that never completes must not hold the other swaps forever
+        return resolved.completeOnTimeout(null, STARTUP_SWAPS_MAX_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void releaseStartupSwaps() {
+        whenSourcesResolved().thenRunAsync(this::openStartupGates, FX_THREAD);
+    }
+
+    /**
+     * Releases all the startup swaps still held, called from the JavaFX Application Thread.
+     */
+    private void openStartupGates() {
+        if (!startupGate.isOpen()) {
+            logger(CSSFXMonitor.class).debug("startup swaps released");
+        }
+        startupGate.open();
+        for (SceneStartup startup : sceneStartups.values()) {
+            startup.gate.open();
+        }
+        sceneStartups.clear();
+    }
+
+    private void registrationSliceProcessed(int processedItems, int pendingItems, long elapsedNanos) {
+        if (logger(CSSFXMonitor.class).isEnabled(LogLevel.DEBUG)) {
+            logger(CSSFXMonitor.class).debug("%d items registered in %d us, %d pending", processedItems, elapsedNanos / 1000, pendingItems);
+        }
+        // later registrations, of the nodes added to the scene graph, are not the progress of the initial one
+        if (!eventListeners.isEmpty() && !initialRegistration.isDone()) {
+            eventNotify(CSSFXEvent.newEvent(EventType.REGISTRATION_PROGRESS, new RegistrationProgress(registrations.processedCount(), pendingItems, elapsedNanos)));
+        }
+        if (pendingItems == 0 && !initialRegistration.isDone()) {
+            logger(CSSFXMonitor.class).info("scene graph registered, %d windows, %d scenes & %d nodes", knownWindows.size(), knownScenes.size(), knownNodes.size());
+            initialRegistration.complete(null);
+        }
     }
 
     private void monitorWindows(ObservableList<? extends Window> observableWindows) {
@@ -163,7 +814,7 @@ public class CSSFXMonitor {
                 while (c.next()) {
                     if (c.wasAdded()) {
                         for (Window addedWindow : c.getAddedSubList()) {
-                            registerWindow(addedWindow);
+                            register(addedWindow);
                         }
                     }
                 }
@@ -172,7 +823,7 @@ public class CSSFXMonitor {
 
         // then process already existing stages
         for (Window stage : observableWindows) {
-            registerWindow(stage);
+            register(stage);
         }
 
     }
@@ -183,13 +834,13 @@ public class CSSFXMonitor {
             @Override
             public void changed(ObservableValue<? extends Scene> ov, Scene o, Scene n) {
                 if (n != null) {
-                    registerScene(n);
+                    register(n);
                 }
             }
         });
 
         if (stageSceneProperty.getValue() != null) {
-            registerScene(stageSceneProperty.getValue());
+            register(stageSceneProperty.getValue());
         }
     }
 
@@ -197,21 +848,22 @@ public class CSSFXMonitor {
         // register on modification
         rootProperty.addListener((ov, o, n) -> {
             if (n != null) {
-                registerNode(n);
+                register(n);
             }
         });
 
         // check current value
         if (rootProperty.getValue() != null) {
-            registerNode(rootProperty.getValue());
+            register(rootProperty.getValue());
         }
     }
 
     private void registerNode(Node node) {
         if (knownNodes.add(node)) {
+            metrics.setKnownNodes(knownNodes.size());
             if (node instanceof Parent) {
                 Parent p = (Parent) node;
-                monitorStylesheets(p.getStylesheets());
+                monitorStylesheets(p.getStylesheets(), registrationBatcherOf(node.getScene()));
                 monitorChildren(p.getChildrenUnmodifiable());
             }
             eventNotify(CSSFXEvent.newEvent(EventType.NODE_ADDED, node));
@@ -226,7 +878,7 @@ public class CSSFXMonitor {
                 while (c.next()) {
                     if (c.wasAdded()) {
                         for (Scene addedScene : c.getAddedSubList()) {
-                            registerScene(addedScene);
+                            register(addedScene);
                         }
                     }
                 }
@@ -235,7 +887,7 @@ public class CSSFXMonitor {
 
         // then add existing values
         for (Scene s : observableScenes) {
-            registerScene(s);
+            register(s);
         }
     }
 
@@ -247,20 +899,32 @@ public class CSSFXMonitor {
                 while (c.next()) {
                     if (c.wasAdded()) {
                         for (Node addedNode : c.getAddedSubList()) {
-                            registerNode(addedNode);
+                            register(addedNode);
                         }
                     }
                 }
             }
         });
-        // then look already existing children
+        // then look already existing children, queued instead of walked recursively
         for (Node node : childrenUnmodifiable) {
-            registerNode(node);
+            register(node);
         }
     }
 
     public void monitorStylesheets(ObservableList<String> stylesheets) {
-        final URIRegistrar registrar = new URIRegistrar(knownConverters, pw);
+        monitorStylesheets(stylesheets, registrationBatcher);
+    }
+
+    private void monitorStylesheets(ObservableList<String> stylesheets, StyleSheetSwapBatcher batcher) {
+        final URIRegistrar registrar = (batcher == null) ? new URIRegistrar(knownConverters, pw)
+                : new URIRegistrar(knownConverters, pw, StyleSheetRegistry.shared(), batcher);
+        registrar.setWatchSourceRoots(watchSourceRoots);
+        registrar.setResolutionCache(resolutionCache);
+        registrar.setSourceResolver(sourceResolver);
+        registrar.setSwapOnRegistration(startupSwaps != StartupSwaps.ON_FIRST_CHANGE);
+        if (validator != null) {
+            registrar.setSourceListener(this::seedParsedSource);
+        }
 
         // first register for changes
         stylesheets.addListener(new StyleSheetChangeListener(registrar));
@@ -272,25 +936,24 @@ public class CSSFXMonitor {
             registrar.register(uri, stylesheets);
         }
 
-        CleanupDetector.onCleanup(stylesheets, () -> {
-            Platform.runLater(() -> {
-                // This is important, so no empty "Runnables" build up in the PathsWatcher
-                registrar.cleanup();
-            });
-        });
+        // This is important, so no empty "Runnables" build up in the PathsWatcher
+        // the lists may be monitored directly, without starting the monitor
+        cleanupDetector.register(stylesheets, registrar::cleanup, FX_THREAD, (metrics == null) ? null : metrics.pendingCleanupsCounter());
     }
 
     private void registerScene(Scene scene) {
         if (knownScenes.add(scene)) {
+            metrics.setKnownScenes(knownScenes.size());
             eventNotify(CSSFXEvent.newEvent(EventType.SCENE_ADDED, scene));
 
-            monitorStylesheets(scene.getStylesheets());
+            monitorStylesheets(scene.getStylesheets(), registrationBatcherOf(scene));
             monitorRoot(scene.rootProperty());
         }
     }
 
     private void registerWindow(Window stage) {
         if (knownWindows.add(stage)) {
+            metrics.setKnownWindows(knownWindows.size());
             eventNotify(CSSFXEvent.newEvent(EventType.STAGE_ADDED, stage));
             monitorStageScene(stage.sceneProperty());
         }
@@ -303,21 +966,83 @@ public class CSSFXMonitor {
     }
 
     public static class URIRegistrar {
-        final Map<String, Path> sourceURIs = new HashMap<>();
-        final Map<Path, List<Runnable>> actions = new HashMap<>();
         final List<URIToPathConverter> converters;
-        private PathsWatcher wp;
+        private final PathsWatcher wp;
+        private final StyleSheetRegistry registry;
+        private final StyleSheetSwapBatcher batcher;
+        private URIResolutionCache resolutionCache = new URIResolutionCache();
+        private boolean watchSourceRoots = false;
+        private SourceResolver sourceResolver;
+        private boolean swapOnRegistration = true;
+        private ObjLongConsumer<Path> sourceListener;
 
         public URIRegistrar(List<URIToPathConverter> c, PathsWatcher wp) {
+            this(c, wp, StyleSheetRegistry.shared(), StyleSheetSwapBatcher.shared());
+        }
+
+        public URIRegistrar(List<URIToPathConverter> c, PathsWatcher wp, StyleSheetRegistry registry, StyleSheetSwapBatcher batcher) {
             converters = c;
             this.wp = wp;
+            this.registry = registry;
+            this.batcher = batcher;
+        }
+
+        /**
+         * @param watchSourceRoots true to watch recursively the source roots of the registered files
+         */
+        public void setWatchSourceRoots(boolean watchSourceRoots) {
+            this.watchSourceRoots = watchSourceRoots;
+        }
+
+        /**
+         * @param resolutionCache the cache of the resolutions of the stylesheets URIs, shared by the registrars of a monitor
+         */
+        public void setResolutionCache(URIResolutionCache resolutionCache) {
+            this.resolutionCache = resolutionCache;
+        }
+
+        /**
+         * @param sourceResolver the resolver registering the stylesheets in background, null to register them on the calling thread
+         */
+        public void setSourceResolver(SourceResolver sourceResolver) {
+            this.sourceResolver = sourceResolver;
+        }
+
+        /**
+         * @param swapOnRegistration false to keep the original URIs in the lists until the source changes
+         */
+        public void setSwapOnRegistration(boolean swapOnRegistration) {
+            this.swapOnRegistration = swapOnRegistration;
+        }
+
+        /**
+         * @param sourceListener the listener called with each source swapped at registration and the registration time, in milliseconds since the epoch
+         */
+        public void setSourceListener(ObjLongConsumer<Path> sourceListener) {
+            this.sourceListener = sourceListener;
+        }
+
+        /**
+         * Watches recursively the source root of a file or directory, if source roots are watched and one converter knows it.
+         * @param source an absolute &amp; normalized source file or directory
+         */
+        public void watchSourceRoot(Path source) {
+            if (!watchSourceRoots) {
+                return;
+            }
+            for (URIToPathConverter c : converters) {
+                Path root = c.sourceRoot(source);
+                if (root != null) {
+                    wp.watchTree(root.toAbsolutePath().normalize());
+                    return;
+                }
+            }
         }
 
         // The logic of this method was taken from the class javafx.scene.image.Image
         private static final Pattern URL_QUICKMATCH = Pattern.compile("^\\p{Alpha}[\\p{Alnum}+.-]*:.*$");
-        private String classpathToURI(String str) {
+        private String classpathToURI(String str, ClassLoader contextClassLoader) {
             if (!URL_QUICKMATCH.matcher(str).matches()) {
-                final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
                 URL resource;
                 if (str.charAt(0) == '/') {
                     resource = contextClassLoader.getResource(str.substring(1));
@@ -337,30 +1062,85 @@ public class CSSFXMonitor {
             }
         }
 
+        /**
+         * Resolves the source of the URI, reusing the resolutions already done for the same converters.
+         * @param uri a stylesheet URI
+         * @return the absolute & normalized source file of the first converter mapping the URI, or null if none
+         */
+        public Path resolve(String uri) {
+            return resolutionCache.resolve(uri, converters, this::convert);
+        }
+
+        /**
+         * Resolves asynchronously the source of the URI through {@link URIToPathConverter#convertAsync(String, Executor)}, reusing the resolutions already done for the same converters.
+         * @param uri a stylesheet URI
+         * @param contextClassLoader the loader of the classpath resources
+         * @param executor the executor given to the converters
+         * @return a future completed with the absolute &amp; normalized source file of the first converter mapping the URI, or with null if none
+         */
+        CompletableFuture<Path> resolveAsync(String uri, ClassLoader contextClassLoader, Executor executor) {
+            return resolutionCache.resolveAsync(uri, converters, u -> convertAsync(u, contextClassLoader, executor));
+        }
+
+        private Path convert(String uri) {
+            String simplifiedURI = classpathToURI(uri, Thread.currentThread().getContextClassLoader());
+
+            logger(CSSFXMonitor.class).debug("searching source for css[%s]", uri);
+            for (URIToPathConverter c : converters) {
+                Path sourceFile = c.convert(simplifiedURI);
+                if (sourceFile != null) {
+                    return sourceFile.toAbsolutePath().normalize();
+                }
+            }
+            return null;
+        }
+
+        private CompletableFuture<Path> convertAsync(String uri, ClassLoader contextClassLoader, Executor executor) {
+            String simplifiedURI = classpathToURI(uri, contextClassLoader);
+
+            logger(CSSFXMonitor.class).debug("searching source for css[%s] in background", uri);
+            // converters are tried in order, the next one only if the previous one did not map the URI
+            CompletableFuture<Path> sourceFile = CompletableFuture.completedFuture(null);
+            for (URIToPathConverter c : converters) {
+                sourceFile = sourceFile.thenCompose(found -> (found != null) ? CompletableFuture.completedFuture(found) : c.convertAsync(simplifiedURI, executor));
+            }
+            return sourceFile.thenApply(found -> (found == null) ? null : found.toAbsolutePath().normalize());
+        }
+
+        /**
+         * Registers the stylesheet, resolving its source on the calling thread, or in background if a {@link SourceResolver} is set.
+         * @param uri the stylesheet URI as declared in the list
+         * @param stylesheets the stylesheets list declaring the URI
+         */
+        @SuppressWarnings("unchecked")
         public void register(String uri, ObservableList<? extends String> stylesheets) {
-            if (!sourceURIs.containsKey(uri)) {
-                String simplifiedURI = classpathToURI(uri);
-
-                logger(CSSFXMonitor.class).debug("searching source for css[%s]", uri);
-                for (URIToPathConverter c : converters) {
-                    Path sourceFile = c.convert(simplifiedURI);
-                    List<Runnable> runnables = new LinkedList<>();
-                    if (sourceFile != null) {
-                        logger(CSSFXMonitor.class).info("css[%s] will be mapped to source[%s]", uri, sourceFile);
-                        Path directory = sourceFile.getParent();
-
-                        Runnable r = new URIStyleUpdater(uri, sourceFile.toUri().toString(), (ObservableList<String>) stylesheets);
-                        wp.monitor(directory.toAbsolutePath().normalize(), sourceFile.toAbsolutePath().normalize(), r);
-                        runnables.add(r);
-                        sourceURIs.put(sourceFile.toUri().toString(), sourceFile);
-
-                        if (Platform.isFxApplicationThread()) {
-                            r.run();
-                        } else {
-                            Platform.runLater(r);
-                        }
+            if (!registry.isSourceURI(uri)) {
+                ObservableList<String> cssURIs = (ObservableList<String>) stylesheets;
+                if (sourceResolver != null) {
+                    sourceResolver.request(this, uri, cssURIs);
+                } else {
+                    registerSource(uri, resolve(uri), cssURIs);
+                }
+            }
+        }
+
+        /**
+         * Registers the resolved source of a stylesheet and queues its swap, thread safe.
+         * @param sourceFile the source of the stylesheet, null if it has none
+         */
+        void registerSource(String uri, Path sourceFile, ObservableList<String> cssURIs) {
+            if (sourceFile != null) {
+                logger(CSSFXMonitor.class).info("css[%s] will be mapped to source[%s]", uri, sourceFile);
+                // before the registration, so that the directory of the file is covered by its root
+                watchSourceRoot(sourceFile);
+                String sourceURI = registry.register(sourceFile, uri, cssURIs, wp);
+
+                // the swap is queued & applied with the others in the next batch
+                if (swapOnRegistration) {
+                    batcher.swap(cssURIs, uri, sourceURI);
+                    if (sourceListener != null) {
+                        sourceListener.accept(sourceFile, System.currentTimeMillis());
                     }
-                    actions.put(sourceFile,runnables);
                 }
             }
         }
@@ -370,15 +1150,42 @@ public class CSSFXMonitor {
 
 
         public void cleanup() {
-            actions.forEach((path,runnables) -> {
-                runnables.forEach( runnable -> {
-                    wp.unregister(path.getParent().toAbsolutePath().normalize(), path.toAbsolutePath().normalize(), runnable);
-                });
-            });
+            // forget the collected stylesheets lists, releasing the sources not used anymore
+            registry.prune();
         }
 
     }
 
+    /**
+     * Swaps of the lists of a scene known at start, held until the subtree of the scene is registered.
+     */
+    private static class SceneStartup {
+        private final String name;
+        private final GatedExecutor gate;
+        private final StyleSheetSwapBatcher batcher;
+        // items of the scene queued & not yet registered
+        private int pendingItems;
+
+        private SceneStartup(String name, GatedExecutor gate) {
+            this.name = name;
+            this.gate = gate;
+            this.batcher = new StyleSheetSwapBatcher(gate);
+        }
+    }
+
+    /**
+     * Item of the registration queue belonging to a scene whose startup swaps are held.
+     */
+    private static class StartupItem {
+        private final Object item;
+        private final SceneStartup startup;
+
+        private StartupItem(Object item, SceneStartup startup) {
+            this.item = item;
+            this.startup = startup;
+        }
+    }
+
     private static class StyleSheetChangeListener implements ListChangeListener<String> {
         private URIRegistrar registrar;
 
@@ -408,11 +1215,17 @@ public class CSSFXMonitor {
         private final String sourceURI;
         private final String originalURI;
         private final WeakReference<ObservableList<String>> cssURIsWeak;
+        private final StyleSheetSwapBatcher batcher;
 
         public URIStyleUpdater(String originalURI, String sourceURI, ObservableList<String> cssURIs) {
+            this(originalURI, sourceURI, cssURIs, StyleSheetSwapBatcher.shared());
+        }
+
+        public URIStyleUpdater(String originalURI, String sourceURI, ObservableList<String> cssURIs, StyleSheetSwapBatcher batcher) {
             this.originalURI = originalURI;
             this.sourceURI = sourceURI;
             this.cssURIsWeak = new WeakReference<>(cssURIs);
+            this.batcher = batcher;
         }
 
         @Override
@@ -420,22 +1233,8 @@ public class CSSFXMonitor {
             ObservableList<String> cssURIs = cssURIsWeak.get();
 
             if(cssURIs != null) {
-                Runnable task = () -> {
-                    int counter = 0;
-                    while(counter < cssURIs.size()) {
-                        String v = cssURIs.get(counter);
-                        if(v.equals(originalURI) || v.equals(sourceURI)) {
-                            cssURIs.remove(counter);
-                            cssURIs.add(counter, sourceURI);
-                        }
-                        counter += 1;
-                    }
-                };
-                // It's important that we are using runLater even when we are using the JavaFX Thread.
-                // This way we make sure we are currently not running the ChangeListener
-                // which would result in an Exception.
-                Platform.runLater(task);
+                batcher.swap(cssURIs, originalURI, sourceURI);
             }
         }
     }
-}
+}
\ No newline at end of file
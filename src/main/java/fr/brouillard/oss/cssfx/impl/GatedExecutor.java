@@ -0,0 +1,76 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor holding its tasks until it is opened, then forwarding them, and all the following ones, to its delegate.
+ * Given to a {@link StyleSheetSwapBatcher}, it holds the whole pending batch: the swaps requested while the gate is closed are applied in a single task.
+ *
+ * @author Matthieu Brouillard
+ */
+public class GatedExecutor implements Executor {
+    private final Executor delegate;
+    private List<Runnable> heldTasks = new ArrayList<>();
+
+    /**
+     * Creates a closed gate.
+     * @param delegate the executor running the tasks once the gate is opened
+     */
+    public GatedExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            if (heldTasks != null) {
+                heldTasks.add(task);
+                return;
+            }
+        }
+        delegate.execute(task);
+    }
+
+    /**
+     * Opens the gate, forwarding the held tasks to the delegate in their submission order. Does nothing if already opened.
+     */
+    public void open() {
+        List<Runnable> tasks;
+        synchronized (this) {
+            tasks = heldTasks;
+            heldTasks = null;
+        }
+        if (tasks != null) {
+            for (Runnable task : tasks) {
+                delegate.execute(task);
+            }
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return heldTasks == null;
+    }
+}
@@ -0,0 +1,206 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+import javafx.collections.ObservableList;
+
+import fr.brouillard.oss.cssfx.impl.CSSFXMonitor.URIRegistrar;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+
+/**
+ * Resolves the sources of the stylesheets registered by the {@link URIRegistrar registrars} of a monitor, and starts to watch them, off the JavaFX Application Thread.
+ * <p>
+ * The requests are gathered in batches: the first request of a batch schedules its processing through the batch trigger, by default after the running
+ * JavaFX task, so that all the requests of a pulse are processed together. Each distinct URI of a batch is resolved once by the asynchronous converters
+ * (see {@link fr.brouillard.oss.cssfx.api.URIToPathConverter#convertAsync(String, java.util.concurrent.Executor)}), then the source is registered in the
+ * {@link StyleSheetRegistry} and watched from the worker; only the resulting swaps are applied on the JavaFX Application Thread, by the {@link StyleSheetSwapBatcher}.
+ *
+ * @author Matthieu Brouillard
+ */
+public class SourceResolver {
+    private final Executor batchTrigger;
+    private final Executor worker;
+    private final Object lock = new Object();
+    private List<Request> pendingRequests = new ArrayList<>();
+    private boolean scheduled = false;
+    // requests not yet registered, and the futures waiting for none to remain, guarded by the lock
+    private int inFlight = 0;
+    private List<CompletableFuture<Void>> idleWaiters = new ArrayList<>();
+    private volatile boolean stopped = false;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+
+    /**
+     * @param batchTrigger executor called with the first request of each batch, delaying the processing to gather the following requests
+     * @param worker executor resolving &amp; registering the sources of a batch, also given to the asynchronous converters
+     */
+    public SourceResolver(Executor batchTrigger, Executor worker) {
+        this.batchTrigger = batchTrigger;
+        this.worker = worker;
+    }
+
+    /**
+     * Requests the registration of a stylesheet, processed with the other requests of the batch.
+     *
+     * @param registrar the registrar of the stylesheets list
+     * @param uri the stylesheet URI as declared in the list
+     * @param stylesheets the stylesheets list declaring the URI
+     */
+    public void request(URIRegistrar registrar, String uri, ObservableList<String> stylesheets) {
+        if (stopped) {
+            return;
+        }
+        // the classpath resources are resolved like the ones of the application, whatever the loader of the worker
+        Request request = new Request(registrar, uri, stylesheets, Thread.currentThread().getContextClassLoader());
+        boolean schedule;
+        synchronized (lock) {
+            inFlight++;
+            pendingRequests.add(request);
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            batchTrigger.execute(() -> worker.execute(this::processBatch));
+        }
+    }
+
+    /**
+     * Drops the pending requests and ignores the next ones.
+     */
+    public void stop() {
+        stopped = true;
+        List<Request> dropped;
+        synchronized (lock) {
+            dropped = pendingRequests;
+            pendingRequests = new ArrayList<>();
+        }
+        requestsDone(dropped.size());
+    }
+
+    /**
+     * @return a future completed once all the requests received until now, and the ones received meanwhile, are registered
+     */
+    public CompletableFuture<Void> whenIdle() {
+        synchronized (lock) {
+            if (inFlight == 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> idle = new CompletableFuture<>();
+            idleWaiters.add(idle);
+            return idle;
+        }
+    }
+
+    private void requestsDone(int count) {
+        List<CompletableFuture<Void>> waiters;
+        synchronized (lock) {
+            inFlight -= count;
+            if (inFlight > 0 || idleWaiters.isEmpty()) {
+                return;
+            }
+            waiters = idleWaiters;
+            idleWaiters = new ArrayList<>();
+        }
+        for (CompletableFuture<Void> idle : waiters) {
+            idle.complete(null);
+        }
+    }
+
+    /**
+     * @return the number of batches processed
+     */
+    public long getBatchesCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the number of distinct lookups started by the batches, requests for the same URI in a batch sharing one lookup
+     */
+    public long getLookupsCount() {
+        return lookups.sum();
+    }
+
+    private void processBatch() {
+        List<Request> batch;
+        synchronized (lock) {
+            batch = pendingRequests;
+            pendingRequests = new ArrayList<>();
+            scheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (stopped) {
+            requestsDone(batch.size());
+            return;
+        }
+        batches.increment();
+
+        // registrars of a monitor share the same converters, one lookup per URI
+        Map<String, CompletableFuture<Path>> batchLookups = new HashMap<>();
+        for (Request request : batch) {
+            CompletableFuture<Path> lookup = batchLookups.computeIfAbsent(request.uri, uri -> {
+                lookups.increment();
+                return request.registrar.resolveAsync(uri, request.loader, worker);
+            });
+            lookup.whenComplete((source, error) -> {
+                try {
+                    if (error != null) {
+                        logger(SourceResolver.class).warn("source of css[%s] cannot be resolved: %s", request.uri, error);
+                    } else if (!stopped) {
+                        request.registrar.registerSource(request.uri, source, request.stylesheets);
+                    }
+                } finally {
+                    requestsDone(1);
+                }
+            });
+        }
+        if (logger(SourceResolver.class).isEnabled(LogLevel.DEBUG)) {
+            logger(SourceResolver.class).debug("%d registration requests batched, %d distinct css", batch.size(), batchLookups.size());
+        }
+    }
+
+    private static final class Request {
+        private final URIRegistrar registrar;
+        private final String uri;
+        private final ObservableList<String> stylesheets;
+        private final ClassLoader loader;
+
+        private Request(URIRegistrar registrar, String uri, ObservableList<String> stylesheets, ClassLoader loader) {
+            this.registrar = registrar;
+            this.uri = uri;
+            this.stylesheets = stylesheets;
+            this.loader = loader;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javafx.css.Stylesheet;
+
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+
+/**
+ * Compiles CSS contents to the binary format of JavaFX ({@code .bss}), loaded by the StyleManager without parsing.
+ * <p>
+ * {@link Stylesheet#convertToBinary(java.io.File, java.io.File)} being the only public way to produce it, the content is compiled
+ * through a single pair of temporary files, shared by the compilations and overwritten by each of them: the extra I/O is a couple
+ * of small writes in the temporary directory, negligible against the parsing saved on the JavaFX Application Thread.
+ * The binary keeps the location of the compiled file as the base of the URLs it references: the relative {@code url()} of the content,
+ * including the sources of its {@code @font-face}, are therefore made absolute against the directory of the source file before the compilation.
+ * Contents using {@code @import} are not compiled, JavaFX loading the imported stylesheets while parsing.
+ * The compiled contents are cached by digest of the CSS content, so that reverting a file to a previous version costs no compilation.
+ *
+ * @author Matthieu Brouillard
+ */
+public class StyleSheetCompiler {
+    private static final int DEFAULT_CACHE_SIZE = 32;
+    private static final Pattern URL = Pattern.compile("url\\(\\s*(['\"]?)(.*?)\\1\\s*\\)");
+    private static final Pattern SCHEME = Pattern.compile("^\\p{Alpha}[\\p{Alnum}+.-]*:.*$");
+    // source & destination of the conversions, shared by all the compilers while holding the lock & deleted on exit
+    private static final Object TEMP_LOCK = new Object();
+    private static Path[] tempFiles;
+
+    private final int cacheSize;
+    // accessed while holding the cache, least recently used first
+    private final Map<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    public StyleSheetCompiler() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize the maximum number of compiled contents kept
+     */
+    public StyleSheetCompiler(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Compiles the content of a CSS file.
+     *
+     * @param cssFile the CSS file, used in the logs only
+     * @param content the content of the file
+     * @return the binary stylesheet, null if the content cannot be compiled
+     */
+    public byte[] compile(Path cssFile, byte[] content) {
+        String css = new String(content, StandardCharsets.UTF_8);
+        if (css.contains("@import")) {
+            logger(StyleSheetCompiler.class).info("source[%s] imports other stylesheets, it is served as CSS", cssFile);
+            return null;
+        }
+        if (css.contains("url(")) {
+            try {
+                content = absoluteURLs(cssFile, css).getBytes(StandardCharsets.UTF_8);
+            } catch (InvalidPathException e) {
+                logger(StyleSheetCompiler.class).info("source[%s] references an invalid path, it is served as CSS: %s", cssFile, e.getMessage());
+                return null;
+            }
+        }
+
+        String key = digest(content);
+        synchronized (cache) {
+            byte[] compiled = cache.get(key);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+
+        byte[] compiled = convert(cssFile, content);
+        if (compiled != null) {
+            synchronized (cache) {
+                cache.put(key, compiled);
+                if (cache.size() > cacheSize) {
+                    cache.remove(cache.keySet().iterator().next());
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the number of compiled contents in cache
+     */
+    public int cachedCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * @return the CSS content whose relative URLs are resolved against the directory of the source file
+     */
+    private static String absoluteURLs(Path cssFile, String css) {
+        Path directory = cssFile.toAbsolutePath().getParent();
+        Matcher url = URL.matcher(css);
+        StringBuffer resolved = new StringBuffer(css.length());
+        while (url.find()) {
+            String target = url.group(2);
+            if (target.isEmpty() || target.startsWith("/") || SCHEME.matcher(target).matches()) {
+                url.appendReplacement(resolved, Matcher.quoteReplacement(url.group()));
+            } else {
+                String absolute = directory.resolve(target).normalize().toUri().toString();
+                url.appendReplacement(resolved, Matcher.quoteReplacement("url(\"" + absolute + "\")"));
+            }
+        }
+        url.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    private static byte[] convert(Path cssFile, byte[] content) {
+        synchronized (TEMP_LOCK) {
+            try {
+                Path[] files = tempFiles();
+                Files.write(files[0], content);
+                long start = System.nanoTime();
+                Stylesheet.convertToBinary(files[0].toFile(), files[1].toFile());
+                byte[] compiled = Files.readAllBytes(files[1]);
+                if (logger(StyleSheetCompiler.class).isEnabled(LogLevel.DEBUG)) {
+                    logger(StyleSheetCompiler.class).debug("source[%s] compiled to %d bytes in %d us", cssFile, compiled.length, (System.nanoTime() - start) / 1000);
+                }
+                return compiled;
+            } catch (IOException | RuntimeException e) {
+                logger(StyleSheetCompiler.class).warn("source[%s] cannot be compiled: %s", cssFile, e);
+                // the temporary files may have been deleted, they are replaced on the next compilation
+                tempFiles = null;
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the shared temporary files, created once, called while holding the lock
+     */
+    private static Path[] tempFiles() throws IOException {
+        if (tempFiles == null) {
+            Path[] files = { Files.createTempFile("cssfx-", ".css"), Files.createTempFile("cssfx-", ".bss") };
+            files[0].toFile().deleteOnExit();
+            files[1].toFile().deleteOnExit();
+            tempFiles = files;
+        }
+        return tempFiles;
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javafx.css.FontFace;
+import javafx.css.Rule;
+import javafx.css.Selector;
+import javafx.css.Stylesheet;
+
+/**
+ * Rule level difference between two parsed versions of a source file.
+ * <p>
+ * Rules are compared by their selectors &amp; declarations, in order because the order of the rules matters in the cascade.
+ * The changed rules are the ones between the longest common prefix and the longest common suffix of both versions,
+ * which is exact for the usual edits touching one area of the file.
+ *
+ * @author Matthieu Brouillard
+ */
+public final class StyleSheetDiff {
+    /**
+     * How a modified source file is applied to the stylesheets lists.
+     */
+    public enum Strategy {
+        /**
+         * The rules did not change (comments, formatting...), the stylesheets lists are not updated and no CSS pass occurs.
+         */
+        NO_SWAP,
+        /**
+         * The stylesheets lists referencing the source are updated, JavaFX reapplies the CSS of the nodes below them.
+         */
+        FULL_SWAP
+    }
+
+    private final Path sourceFile;
+    private final boolean baseline;
+    private final int removedRules;
+    private final int addedRules;
+    private final Set<String> changedSelectors;
+    private final boolean fontFacesChanged;
+
+    private StyleSheetDiff(Path sourceFile, boolean baseline, int removedRules, int addedRules, Set<String> changedSelectors, boolean fontFacesChanged) {
+        this.sourceFile = sourceFile;
+        this.baseline = baseline;
+        this.removedRules = removedRules;
+        this.addedRules = addedRules;
+        this.changedSelectors = changedSelectors;
+        this.fontFacesChanged = fontFacesChanged;
+    }
+
+    /**
+     * @param sourceFile the modified source file
+     * @param previous the previously parsed version of the file, null if unknown
+     * @param next the newly parsed version of the file
+     * @return the difference between both versions, a {@link Strategy#FULL_SWAP} without details if the previous version is unknown
+     */
+    public static StyleSheetDiff between(Path sourceFile, Stylesheet previous, Stylesheet next) {
+        if (previous == null) {
+            return new StyleSheetDiff(sourceFile, false, 0, 0, Collections.emptySet(), false);
+        }
+        List<Rule> before = previous.getRules();
+        List<Rule> after = next.getRules();
+
+        int prefix = 0;
+        int maxPrefix = Math.min(before.size(), after.size());
+        while (prefix < maxPrefix && sameRule(before.get(prefix), after.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix && sameRule(before.get(before.size() - 1 - suffix), after.get(after.size() - 1 - suffix))) {
+            suffix++;
+        }
+
+        List<Rule> removed = before.subList(prefix, before.size() - suffix);
+        List<Rule> added = after.subList(prefix, after.size() - suffix);
+        Set<String> selectors = new LinkedHashSet<>();
+        addSelectors(removed, selectors);
+        addSelectors(added, selectors);
+
+        return new StyleSheetDiff(sourceFile, true, removed.size(), added.size(), Collections.unmodifiableSet(selectors),
+                !sameFontFaces(previous.getFontFaces(), next.getFontFaces()));
+    }
+
+    private static boolean sameRule(Rule a, Rule b) {
+        return a.getSelectors().equals(b.getSelectors()) && a.getDeclarations().equals(b.getDeclarations());
+    }
+
+    private static boolean sameFontFaces(List<FontFace> a, List<FontFace> b) {
+        // FontFace does not define equality
+        return a.toString().equals(b.toString());
+    }
+
+    private static void addSelectors(List<Rule> rules, Set<String> selectors) {
+        for (Rule rule : rules) {
+            for (Selector selector : rule.getSelectors()) {
+                selectors.add(selector.toString());
+            }
+        }
+    }
+
+    public Path getSourceFile() {
+        return sourceFile;
+    }
+
+    /**
+     * @return true if the previous version of the file was known, false if the rules could not be compared
+     */
+    public boolean hasBaseline() {
+        return baseline;
+    }
+
+    /**
+     * @return the number of rules of the previous version replaced by the new version
+     */
+    public int getRemovedRules() {
+        return removedRules;
+    }
+
+    /**
+     * @return the number of rules of the new version replacing the previous ones
+     */
+    public int getAddedRules() {
+        return addedRules;
+    }
+
+    /**
+     * @return the selectors of the removed &amp; added rules, the nodes they match are the ones whose style may change
+     */
+    public Set<String> getChangedSelectors() {
+        return changedSelectors;
+    }
+
+    /**
+     * @return true if no rule nor font face changed between both versions
+     */
+    public boolean isEmpty() {
+        return baseline && removedRules == 0 && addedRules == 0 && !fontFacesChanged;
+    }
+
+    public Strategy getStrategy() {
+        return isEmpty() ? Strategy.NO_SWAP : Strategy.FULL_SWAP;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StyleSheetDiff [sourceFile=%s, strategy=%s, baseline=%s, removedRules=%d, addedRules=%d, changedSelectors=%s]",
+                sourceFile, getStrategy(), baseline, removedRules, addedRules, changedSelectors);
+    }
+}
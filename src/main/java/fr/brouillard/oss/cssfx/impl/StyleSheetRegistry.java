@@ -0,0 +1,372 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ObjIntConsumer;
+
+import javafx.collections.ObservableList;
+
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+
+/**
+ * Process wide index of the stylesheets lists using a source file.
+ * Each distinct source file is registered once, whatever the number of stylesheets lists referencing it,
+ * and owns the action registered in each {@link PathsWatcher} monitoring that file.
+ * A modification notified by a watcher is only reloaded in the stylesheets lists registered with that watcher,
+ * once its dispatch filters accepted it: the lists of the other monitors are reloaded by their own watchers, if their filters accept it too.
+ * Stylesheets lists are weakly referenced and forgotten once collected, see {@link #prune()}.
+ *
+ * @author Matthieu Brouillard
+ */
+public class StyleSheetRegistry {
+    private static final StyleSheetRegistry SHARED = new StyleSheetRegistry(StyleSheetSwapBatcher.shared());
+
+    private final StyleSheetSwapBatcher batcher;
+    private final StyleSheetStore store = StyleSheetStore.shared();
+    private final Map<Path, SourceEntry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Path> sourceURIs = new ConcurrentHashMap<>();
+    private final ReferenceQueue<ObservableList<String>> collectedLists = new ReferenceQueue<>();
+    private final Map<PathsWatcher, List<ObjIntConsumer<Path>>> reloadListeners = new ConcurrentHashMap<>();
+
+    public StyleSheetRegistry(StyleSheetSwapBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    /**
+     * @return the registry shared by all the monitors
+     */
+    public static StyleSheetRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * Registers a listener called each time a source file is reloaded in the stylesheets lists registered with the given watcher,
+     * just before the swaps of these lists are requested.
+     * The listener is called from the thread reloading the source, usually the watcher thread.
+     * @param watcher the watcher whose reloads are listened
+     * @param listener the listener called with the source file and the number of stylesheets lists to update
+     */
+    public void addReloadListener(PathsWatcher watcher, ObjIntConsumer<Path> listener) {
+        reloadListeners.computeIfAbsent(watcher, w -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void removeReloadListener(PathsWatcher watcher, ObjIntConsumer<Path> listener) {
+        reloadListeners.computeIfPresent(watcher, (w, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    /**
+     * @param uri a stylesheet URI
+     * @return true if the given URI is the URI of a registered source file, or of a version of it published in the {@link StyleSheetStore}
+     */
+    public boolean isSourceURI(String uri) {
+        if (sourceURIs.containsKey(uri)) {
+            return true;
+        }
+        if (uri.startsWith(StyleSheetStore.SCHEME + ":")) {
+            Path source = store.sourceOf(uri);
+            return source != null && entries.containsKey(source);
+        }
+        return false;
+    }
+
+    /**
+     * Associates the given stylesheets list to the source file, and starts to monitor the source file with the given watcher if not already done.
+     *
+     * @param sourceFile the source file of the stylesheet
+     * @param originalURI the URI of the stylesheet as declared in the list
+     * @param stylesheets the stylesheets list declaring the original URI
+     * @param watcher the watcher that will notify the modifications of the source file
+     * @return the URI of the source file to use in place of the original one, the URI of the version last reloaded by the watcher if any
+     */
+    public String register(Path sourceFile, String originalURI, ObservableList<String> stylesheets, PathsWatcher watcher) {
+        Path source = sourceFile.toAbsolutePath().normalize();
+        while (true) {
+            SourceEntry entry = entries.computeIfAbsent(source, SourceEntry::new);
+            Runnable watcherAction;
+            String currentURI;
+            synchronized (entry) {
+                if (entry.released) {
+                    // concurrently released, a new entry is needed
+                    continue;
+                }
+                watcherAction = entry.add(originalURI, stylesheets, watcher);
+                currentURI = entry.currentURIs.get(watcher);
+            }
+            sourceURIs.put(entry.sourceURI, source);
+
+            if (watcherAction != null) {
+                logger(StyleSheetRegistry.class).debug("monitoring source[%s] for the registry", source);
+                watcher.monitor(source.getParent(), source, watcherAction);
+            }
+            return currentURI;
+        }
+    }
+
+    /**
+     * @param sourceFile a source file
+     * @return the stylesheets lists, still alive, referencing the source file
+     */
+    public List<ObservableList<String>> stylesheetsOf(Path sourceFile) {
+        SourceEntry entry = entries.get(sourceFile.toAbsolutePath().normalize());
+        return (entry == null) ? Collections.emptyList() : entry.liveStylesheets();
+    }
+
+    /**
+     * Reloads the given source file in the stylesheets lists registered with the given watcher.
+     * @param sourceFile a source file
+     * @param watcher the watcher the lists to reload are registered with
+     * @return the number of stylesheets lists to be updated
+     */
+    public int reload(Path sourceFile, PathsWatcher watcher) {
+        SourceEntry entry = entries.get(sourceFile.toAbsolutePath().normalize());
+        return (entry == null) ? 0 : entry.reload(watcher);
+    }
+
+    /**
+     * @return the number of distinct source files registered
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Forgets the stylesheets lists registered with the given watcher, usually because its monitor is stopped,
+     * and removes the actions of the registry from the watcher.
+     * Lists also registered with other watchers stay registered for them.
+     * Source files that are not referenced anymore are unregistered from their watchers.
+     *
+     * @param watcher a watcher previously given to {@link #register(Path, String, ObservableList, PathsWatcher)}
+     */
+    public void unregister(PathsWatcher watcher) {
+        for (SourceEntry entry : entries.values()) {
+            entry.removeWatcher(watcher);
+        }
+    }
+
+    /**
+     * Forgets the stylesheets lists that have been garbage collected.
+     * Source files that are not referenced anymore are unregistered from their watchers.
+     */
+    public void prune() {
+        Reference<? extends ObservableList<String>> collected;
+        Set<SourceEntry> impacted = new HashSet<>();
+        while ((collected = collectedLists.poll()) != null) {
+            StylesheetsRef ref = (StylesheetsRef) collected;
+            ref.entry.remove(ref);
+            impacted.add(ref.entry);
+        }
+        for (SourceEntry entry : impacted) {
+            entry.releaseIfUnused();
+        }
+    }
+
+    private class SourceEntry {
+        private final Path source;
+        private final String sourceURI;
+        // URI swapped in the stylesheets lists of each watcher by its last reload
+        private final Map<PathsWatcher, String> currentURIs = new IdentityHashMap<>();
+        private final Set<String> originalURIs = new LinkedHashSet<>();
+        private final Set<StylesheetsRef> stylesheets = new HashSet<>();
+        private final Map<PathsWatcher, Runnable> watchers = new IdentityHashMap<>();
+        // lists registered through each watcher, a list can be registered by several monitors
+        private final Map<PathsWatcher, Set<StylesheetsRef>> stylesheetsByWatcher = new IdentityHashMap<>();
+        private boolean released = false;
+
+        private SourceEntry(Path source) {
+            this.source = source;
+            this.sourceURI = source.toUri().toString();
+        }
+
+        /**
+         * @return the action to register in the watcher, null if the watcher was already watching the source for this entry
+         */
+        private synchronized Runnable add(String originalURI, ObservableList<String> cssURIs, PathsWatcher watcher) {
+            originalURIs.add(originalURI);
+            StylesheetsRef probe = new StylesheetsRef(cssURIs, this, null);
+            if (!stylesheets.contains(probe)) {
+                stylesheets.add(new StylesheetsRef(cssURIs, this, collectedLists));
+            }
+            // the probe is equal to the registered reference as long as the list is alive
+            stylesheetsByWatcher.computeIfAbsent(watcher, w -> new HashSet<>()).add(probe);
+            if (watchers.containsKey(watcher)) {
+                return null;
+            }
+            Runnable action = () -> reload(watcher);
+            watchers.put(watcher, action);
+            currentURIs.put(watcher, store.uriOf(source));
+            return action;
+        }
+
+        private synchronized void remove(StylesheetsRef ref) {
+            stylesheets.remove(ref);
+            // a collected reference is only equal to itself, the references of the watchers are cleared with it
+            for (Set<StylesheetsRef> registered : stylesheetsByWatcher.values()) {
+                registered.removeIf(r -> r.get() == null);
+            }
+        }
+
+        private void removeWatcher(PathsWatcher watcher) {
+            Runnable action;
+            synchronized (this) {
+                action = watchers.remove(watcher);
+                Set<StylesheetsRef> registered = stylesheetsByWatcher.remove(watcher);
+                if (registered != null) {
+                    for (StylesheetsRef ref : registered) {
+                        if (stylesheetsByWatcher.values().stream().noneMatch(others -> others.contains(ref))) {
+                            stylesheets.remove(ref);
+                        }
+                    }
+                }
+                currentURIs.remove(watcher);
+            }
+            if (action != null) {
+                watcher.unregister(source.getParent(), source, action);
+            }
+            releaseIfUnused();
+        }
+
+        private void releaseIfUnused() {
+            Map<PathsWatcher, Runnable> toRelease;
+            synchronized (this) {
+                if (released || !stylesheets.isEmpty()) {
+                    return;
+                }
+                released = true;
+                toRelease = new IdentityHashMap<>(watchers);
+                watchers.clear();
+                stylesheetsByWatcher.clear();
+                currentURIs.clear();
+                entries.remove(source, this);
+                sourceURIs.remove(sourceURI, source);
+            }
+            store.evict(source);
+            logger(StyleSheetRegistry.class).debug("source[%s] is not referenced anymore", source);
+            toRelease.forEach((watcher, action) -> watcher.unregister(source.getParent(), source, action));
+        }
+
+        private synchronized List<ObservableList<String>> liveStylesheets() {
+            return alive(stylesheets);
+        }
+
+        private List<ObservableList<String>> alive(Set<StylesheetsRef> refs) {
+            List<ObservableList<String>> alive = new ArrayList<>(refs.size());
+            for (StylesheetsRef ref : refs) {
+                ObservableList<String> cssURIs = ref.get();
+                if (cssURIs != null) {
+                    alive.add(cssURIs);
+                }
+            }
+            return alive;
+        }
+
+        /**
+         * @param watcher the watcher notifying the modification, or whose monitor reloads explicitly the source
+         * @return the number of stylesheets lists to be updated
+         */
+        private int reload(PathsWatcher watcher) {
+            List<String> originals;
+            Set<String> previousURIs;
+            String newURI;
+            List<ObservableList<String>> alive;
+            synchronized (this) {
+                if (!watchers.containsKey(watcher)) {
+                    // unregistered meanwhile
+                    return 0;
+                }
+                newURI = store.uriOf(source);
+                originals = new ArrayList<>(originalURIs);
+                // a list registered with several watchers may hold the version reloaded by any of them
+                previousURIs = new HashSet<>(currentURIs.values());
+                previousURIs.remove(newURI);
+                currentURIs.put(watcher, newURI);
+                alive = alive(stylesheetsByWatcher.getOrDefault(watcher, Collections.emptySet()));
+            }
+            if (logger(StyleSheetRegistry.class).isEnabled(LogLevel.DEBUG)) {
+                logger(StyleSheetRegistry.class).debug("source[%s] changed, %d stylesheets lists to update", source, alive.size());
+            }
+            // listeners are notified before the swaps, that can be applied right away
+            for (ObjIntConsumer<Path> listener : reloadListeners.getOrDefault(watcher, Collections.emptyList())) {
+                listener.accept(source, alive.size());
+            }
+            for (ObservableList<String> cssURIs : alive) {
+                for (String originalURI : originals) {
+                    batcher.swap(cssURIs, originalURI, newURI);
+                }
+                for (String previousURI : previousURIs) {
+                    batcher.swap(cssURIs, previousURI, newURI);
+                }
+            }
+            return alive.size();
+        }
+    }
+
+    /**
+     * Weak reference to a stylesheets list, compared by identity of the list because ObservableList equality relies on its content.
+     */
+    private static class StylesheetsRef extends WeakReference<ObservableList<String>> {
+        private final int hash;
+        private final SourceEntry entry;
+
+        private StylesheetsRef(ObservableList<String> cssURIs, SourceEntry entry, ReferenceQueue<ObservableList<String>> queue) {
+            super(cssURIs, queue);
+            this.hash = System.identityHashCode(cssURIs);
+            this.entry = entry;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof StylesheetsRef)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((StylesheetsRef) obj).get();
+        }
+    }
+}
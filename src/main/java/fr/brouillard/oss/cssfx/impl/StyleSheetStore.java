@@ -0,0 +1,267 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.spi.URLStreamHandlerProvider;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+
+/**
+ * Process wide store of the last content read from the modified source files, served to JavaFX through {@value #SCHEME} URLs.
+ * <p>
+ * Each published content gets a new URL {@code cssfx://v<version>/<path of the source>}, so that swapping it in the stylesheets lists
+ * makes JavaFX load it without touching the disk. Only the last version of a source is kept: an older URL still referenced by a list
+ * is served the last content of its path, and paths without published content, like the resources relative to a stylesheet, are read from the disk.
+ * The content of a source is evicted once no stylesheets list references the source anymore.
+ * <p>
+ * A binary version of the content can be published along with it: JavaFX probes the {@code .bss} sibling of each {@code .css} URL
+ * before parsing it, the binary version is served for this sibling.
+ * <p>
+ * The URLs are resolved by {@link Provider}, declared as a {@link URLStreamHandlerProvider} service; when it cannot be loaded
+ * (the library is not visible from the system class loader), {@link #isSupported()} is false and the sources are served from the disk.
+ *
+ * @author Matthieu Brouillard
+ */
+public class StyleSheetStore {
+    /**
+     * Scheme of the URLs of the published contents.
+     */
+    public static final String SCHEME = "cssfx";
+
+    private static final StyleSheetStore SHARED = new StyleSheetStore();
+
+    private final AtomicLong versions = new AtomicLong();
+    private final Map<Path, Published> published = new ConcurrentHashMap<>();
+
+    /**
+     * @return the store shared by all the monitors, the one served by the {@value #SCHEME} URLs
+     */
+    public static StyleSheetStore shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return true if the {@value #SCHEME} URLs can be opened by JavaFX
+     */
+    public static boolean isSupported() {
+        return SupportHolder.SUPPORTED;
+    }
+
+    /**
+     * Publishes a new version of the source file, replacing the previous one.
+     *
+     * @param sourceFile an absolute &amp; normalized source file
+     * @param content the content of the file, must not be modified afterwards
+     * @return the URL serving the content
+     */
+    public String publish(Path sourceFile, byte[] content) {
+        return publish(sourceFile, content, null);
+    }
+
+    /**
+     * Publishes a new version of the source file with its binary version, replacing the previous one.
+     * Publishing the content of the last published version, as done by each monitor watching the file, keeps this version.
+     *
+     * @param sourceFile an absolute &amp; normalized source file
+     * @param content the content of the file, must not be modified afterwards
+     * @param binary the content compiled to the binary format of JavaFX, null if not compiled
+     * @return the URL serving the content
+     */
+    public String publish(Path sourceFile, byte[] content, byte[] binary) {
+        Published last = published.get(sourceFile);
+        if (last != null && Arrays.equals(last.content, content)) {
+            if (binary != null && last.binary == null) {
+                published.put(sourceFile, new Published(last.uri, content, binary));
+            }
+            return last.uri;
+        }
+        String uri = SCHEME + "://v" + versions.incrementAndGet() + sourceFile.toUri().getRawPath();
+        published.put(sourceFile, new Published(uri, content, binary));
+        if (logger(StyleSheetStore.class).isEnabled(LogLevel.DEBUG)) {
+            logger(StyleSheetStore.class).debug("source[%s] published as %s, %d bytes, %s binary", sourceFile, uri, content.length, (binary == null) ? "no" : binary.length + " bytes");
+        }
+        return uri;
+    }
+
+    /**
+     * @param sourceFile an absolute &amp; normalized source file
+     * @return the URL of the last published version of the file, or its file URI if none is published
+     */
+    public String uriOf(Path sourceFile) {
+        Published p = published.get(sourceFile);
+        return (p == null) ? sourceFile.toUri().toString() : p.uri;
+    }
+
+    /**
+     * @param uri a stylesheet URI
+     * @return the source file of a {@value #SCHEME} or {@code file:} URI, null for the other URIs
+     */
+    public Path sourceOf(String uri) {
+        try {
+            if (uri.startsWith(SCHEME + "://")) {
+                return pathOf(URI.create(uri).getRawPath());
+            }
+            if (uri.startsWith("file:")) {
+                return Paths.get(URI.create(uri)).toAbsolutePath().normalize();
+            }
+        } catch (IllegalArgumentException e) {
+            // not a valid URI, cannot be a source
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the published content of the source file, its URLs are then served from the disk.
+     *
+     * @param sourceFile an absolute &amp; normalized source file
+     */
+    public void evict(Path sourceFile) {
+        if (published.remove(sourceFile) != null) {
+            logger(StyleSheetStore.class).debug("published content of source[%s] evicted", sourceFile);
+        }
+    }
+
+    /**
+     * @return the number of source files having a published content
+     */
+    public int size() {
+        return published.size();
+    }
+
+    private InputStream open(String rawPath) throws IOException {
+        Path file = pathOf(rawPath);
+        Published p = published.get(file);
+        if (p != null) {
+            return new ByteArrayInputStream(p.content);
+        }
+        String name = file.getFileName().toString();
+        if (name.endsWith(".bss")) {
+            Published css = published.get(file.resolveSibling(name.substring(0, name.length() - 4) + ".css"));
+            if (css != null) {
+                if (css.binary == null) {
+                    // published as text only, a binary file on the disk would be outdated
+                    throw new FileNotFoundException(file.toString());
+                }
+                return new ByteArrayInputStream(css.binary);
+            }
+        }
+        try {
+            return Files.newInputStream(file);
+        } catch (NoSuchFileException e) {
+            // the exception expected by JavaFX when probing the binary version of a stylesheet
+            throw new FileNotFoundException(file.toString());
+        }
+    }
+
+    private static Path pathOf(String rawPath) {
+        return Paths.get(URI.create("file://" + rawPath)).toAbsolutePath().normalize();
+    }
+
+    private static final class Published {
+        private final String uri;
+        private final byte[] content;
+        private final byte[] binary;
+
+        private Published(String uri, byte[] content, byte[] binary) {
+            this.uri = uri;
+            this.content = content;
+            this.binary = binary;
+        }
+    }
+
+    private static final class SupportHolder {
+        private static final boolean SUPPORTED = checkSupport();
+
+        private static boolean checkSupport() {
+            try {
+                new URL(SCHEME + "://v0/");
+                return true;
+            } catch (MalformedURLException e) {
+                logger(StyleSheetStore.class).warn("%s URLs are not supported, the URL handler provider is not visible from the system class loader", SCHEME);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Resolves the {@value #SCHEME} URLs from the shared store, loaded by {@link URL} through the {@link java.util.ServiceLoader}.
+     */
+    public static class Provider extends URLStreamHandlerProvider {
+        @Override
+        public URLStreamHandler createURLStreamHandler(String protocol) {
+            return SCHEME.equals(protocol) ? new Handler() : null;
+        }
+    }
+
+    private static class Handler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL u) {
+            return new StoreConnection(u);
+        }
+    }
+
+    private static class StoreConnection extends URLConnection {
+        private InputStream input;
+
+        private StoreConnection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (!connected) {
+                input = SHARED.open(url.getPath());
+                connected = true;
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return input;
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/css";
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+
+/**
+ * Gathers the stylesheets swaps requested between two JavaFX pulses and applies them in a single JavaFX task,
+ * each affected stylesheets list being updated only once.
+ *
+ * @author Matthieu Brouillard
+ */
+public class StyleSheetSwapBatcher {
+    private static final StyleSheetSwapBatcher SHARED = new StyleSheetSwapBatcher(Platform::runLater);
+
+    private final Executor fxExecutor;
+    private final List<BatchListener> batchListeners = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+    // stylesheets lists are compared by identity, ObservableList equality relies on the content
+    private Map<ObservableList<String>, Map<String, String>> pendingSwaps = new IdentityHashMap<>();
+    // number of lists to update by source URI
+    private Map<String, Integer> pendingSources = new HashMap<>();
+    private boolean scheduled = false;
+
+    /**
+     * Listener of the batches applied on the JavaFX Application Thread.
+     */
+    @FunctionalInterface
+    public static interface BatchListener {
+        /**
+         * @param updatedLists the number of stylesheets lists updated by the batch
+         * @param listsBySourceURI the number of stylesheets lists requested to be updated, by source URI
+         */
+        public void batchApplied(int updatedLists, Map<String, Integer> listsBySourceURI);
+    }
+
+    /**
+     * @param fxExecutor executor used to apply the swaps on the JavaFX Application Thread
+     */
+    public StyleSheetSwapBatcher(Executor fxExecutor) {
+        this.fxExecutor = fxExecutor;
+    }
+
+    /**
+     * @return the batcher shared by all the monitors, applying the swaps through {@link Platform#runLater(Runnable)}
+     */
+    public static StyleSheetSwapBatcher shared() {
+        return SHARED;
+    }
+
+    /**
+     * Registers a listener notified, on the JavaFX Application Thread, after each batch.
+     * @param listener the listener to register
+     */
+    public void addBatchListener(BatchListener listener) {
+        batchListeners.add(listener);
+    }
+
+    public void removeBatchListener(BatchListener listener) {
+        batchListeners.remove(listener);
+    }
+
+    /**
+     * Requests the replacement, in the given list, of the original URI (or of the source URI itself to force its reload) by the source URI.
+     * The swap is applied with the other pending ones in the next batch.
+     *
+     * @param stylesheets the stylesheets list to update
+     * @param originalURI the URI to replace
+     * @param sourceURI the URI of the source file replacing the original one
+     */
+    public void swap(ObservableList<String> stylesheets, String originalURI, String sourceURI) {
+        boolean schedule;
+        synchronized (lock) {
+            Map<String, String> replacements = pendingSwaps.computeIfAbsent(stylesheets, l -> new HashMap<>());
+            if (!replacements.containsKey(sourceURI)) {
+                pendingSources.merge(sourceURI, 1, Integer::sum);
+            }
+            replacements.put(originalURI, sourceURI);
+            replacements.put(sourceURI, sourceURI);
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            // It's important that we are using runLater even when we are using the JavaFX Thread.
+            // This way we make sure we are currently not running the ChangeListener
+            // which would result in an Exception.
+            try {
+                fxExecutor.execute(this::applyPendingSwaps);
+            } catch (RuntimeException e) {
+                // the swaps stay pending, next request will try again to schedule them
+                synchronized (lock) {
+                    scheduled = false;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void applyPendingSwaps() {
+        Map<ObservableList<String>, Map<String, String>> batch;
+        Map<String, Integer> batchSources;
+        synchronized (lock) {
+            batch = pendingSwaps;
+            batchSources = pendingSources;
+            pendingSwaps = new IdentityHashMap<>();
+            pendingSources = new HashMap<>();
+            scheduled = false;
+        }
+
+        int updatedLists = 0;
+        for (Map.Entry<ObservableList<String>, Map<String, String>> swaps : batch.entrySet()) {
+            ObservableList<String> cssURIs = swaps.getKey();
+            Map<String, String> replacements = swaps.getValue();
+
+            List<String> newURIs = new ArrayList<>(cssURIs.size());
+            boolean matched = false;
+            for (String uri : cssURIs) {
+                String replacement = replacements.get(uri);
+                if (replacement != null) {
+                    matched = true;
+                    newURIs.add(replacement);
+                } else {
+                    newURIs.add(uri);
+                }
+            }
+            if (matched) {
+                // even if the content is unchanged, replacing the values forces JavaFX to reload the stylesheets
+                cssURIs.setAll(newURIs);
+                updatedLists++;
+            }
+        }
+
+        if (logger(StyleSheetSwapBatcher.class).isEnabled(LogLevel.DEBUG)) {
+            logger(StyleSheetSwapBatcher.class).debug("%d stylesheets lists updated in batch", updatedLists);
+        }
+        Map<String, Integer> listsBySourceURI = Collections.unmodifiableMap(batchSources);
+        for (BatchListener listener : batchListeners) {
+            listener.batchApplied(updatedLists, listsBySourceURI);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javafx.css.CssParser;
+import javafx.css.Rule;
+import javafx.css.Stylesheet;
+
+/**
+ * Detects the syntax errors of CSS files before they are swapped in, without the JavaFX Application Thread.
+ * <p>
+ * {@link CssParser} does not throw on syntax errors: it drops the broken rules or declarations and reports them to the global
+ * {@link CssParser#errorsProperty()} list, owned by the JavaFX Application Thread and not touched here. The validator parses the file with
+ * its own parser, then compares the rules &amp; declarations parsed with the ones found by a lexical scan of the text: each rule or declaration
+ * missing from the parsed stylesheet has been dropped by an error. The scan also reports the unclosed blocks, comments &amp; strings.
+ * Values that are syntactically valid but meaningless for their property are accepted, as JavaFX does.
+ * <p>
+ * Instances can be used from any thread.
+ *
+ * @author Matthieu Brouillard
+ */
+public class StyleSheetValidator {
+    /**
+     * Parses the given CSS file and collects its syntax errors.
+     *
+     * @param cssFile a CSS file
+     * @return the parsing errors, empty if the file is valid
+     */
+    public List<String> validate(Path cssFile) {
+        List<String> errors = new ArrayList<>();
+        parse(cssFile, errors);
+        return errors.isEmpty() ? Collections.emptyList() : errors;
+    }
+
+    /**
+     * Parses the given CSS file.
+     *
+     * @param cssFile a CSS file
+     * @param errors the list receiving the parsing errors
+     * @return the parsed stylesheet, null if the file cannot be read
+     */
+    public Stylesheet parse(Path cssFile, List<String> errors) {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(cssFile);
+        } catch (IOException e) {
+            errors.add("cannot read " + cssFile + ": " + e);
+            return null;
+        }
+        return parse(cssFile, content, errors);
+    }
+
+    /**
+     * Parses the content already read from a CSS file.
+     *
+     * @param cssFile the CSS file, used to resolve the relative URLs
+     * @param content the content of the file, decoded like JavaFX does with the default charset
+     * @param errors the list receiving the parsing errors
+     * @return the parsed stylesheet
+     */
+    public Stylesheet parse(Path cssFile, byte[] content, List<String> errors) {
+        String css = new String(content, Charset.defaultCharset());
+        Stylesheet stylesheet;
+        try {
+            stylesheet = new CssParser().parse(cssFile.toUri().toString(), css);
+        } catch (IOException e) {
+            errors.add("cannot parse " + cssFile + ": " + e);
+            return null;
+        }
+        compare(stylesheet, scan(css, errors), errors);
+        return stylesheet;
+    }
+
+    /**
+     * @param cssFile a CSS file
+     * @return true if the file can be read and parsed without errors
+     */
+    public boolean isValid(Path cssFile) {
+        return validate(cssFile).isEmpty();
+    }
+
+    private static void compare(Stylesheet stylesheet, List<ScannedRule> scanned, List<String> errors) {
+        List<Rule> parsed = stylesheet.getRules();
+        if (parsed.size() < scanned.size()) {
+            // the dropped rules cannot be matched reliably, the first rule whose declarations differ locates the error
+            int i = 0;
+            while (i < parsed.size() && parsed.get(i).getDeclarations().size() == scanned.get(i).declarations) {
+                i++;
+            }
+            errors.add((scanned.size() - parsed.size()) + " of " + scanned.size() + " rules dropped by the parser, from line " + scanned.get(i).line);
+            return;
+        }
+        if (parsed.size() > scanned.size()) {
+            // unsupported at-rules, like @media, are parsed as style rules
+            errors.add(parsed.size() + " rules parsed instead of " + scanned.size());
+            return;
+        }
+        for (int i = 0; i < scanned.size(); i++) {
+            ScannedRule rule = scanned.get(i);
+            int parsedDeclarations = parsed.get(i).getDeclarations().size();
+            if (parsedDeclarations != rule.declarations) {
+                errors.add("rule at line " + rule.line + ": " + (rule.declarations - parsedDeclarations) + " of " + rule.declarations + " declarations dropped by the parser");
+            }
+        }
+    }
+
+    /**
+     * Lists the style rules of the text, with their number of declarations; at-rules are skipped.
+     */
+    private static List<ScannedRule> scan(String css, List<String> errors) {
+        List<ScannedRule> rules = new ArrayList<>();
+        int line = 1;
+        // 0 between the rules, 1 in the declarations of a style rule
+        int depth = 0;
+        boolean atRule = false;
+        int atRuleDepth = 0;
+        boolean preludeStarted = false;
+        int preludeLine = 1;
+        ScannedRule current = null;
+        boolean declarationStarted = false;
+        int parentheses = 0;
+
+        int length = css.length();
+        for (int i = 0; i < length; i++) {
+            char c = css.charAt(i);
+            if (c == '\n') {
+                line++;
+                continue;
+            }
+            if (c == '/' && i + 1 < length && css.charAt(i + 1) == '*') {
+                int end = css.indexOf("*/", i + 2);
+                if (end < 0) {
+                    errors.add("unclosed comment at line " + line);
+                    return rules;
+                }
+                line += count(css, '\n', i, end);
+                i = end + 1;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                int end = endOfString(css, i);
+                if (end < 0) {
+                    errors.add("unclosed string at line " + line);
+                    return rules;
+                }
+                line += count(css, '\n', i, end);
+                i = end;
+                c = 'x';
+            }
+
+            if (atRule) {
+                // skipped up to its ';' or its closing brace
+                if (c == '{') {
+                    atRuleDepth++;
+                } else if (c == '}') {
+                    atRuleDepth--;
+                    if (atRuleDepth == 0) {
+                        atRule = false;
+                    } else if (atRuleDepth < 0) {
+                        errors.add("unexpected '}' at line " + line);
+                        atRule = false;
+                        atRuleDepth = 0;
+                    }
+                } else if (c == ';' && atRuleDepth == 0) {
+                    atRule = false;
+                }
+            } else if (depth == 0) {
+                if (c == '@' && !preludeStarted) {
+                    atRule = true;
+                } else if (c == '{') {
+                    current = new ScannedRule(preludeStarted ? preludeLine : line);
+                    rules.add(current);
+                    depth = 1;
+                    preludeStarted = false;
+                } else if (c == '}') {
+                    errors.add("unexpected '}' at line " + line);
+                } else if (!preludeStarted) {
+                    preludeStarted = true;
+                    preludeLine = line;
+                }
+            } else {
+                if (c == '(') {
+                    parentheses++;
+                } else if (c == ')') {
+                    parentheses = Math.max(0, parentheses - 1);
+                } else if (parentheses == 0 && (c == ';' || c == '}')) {
+                    if (declarationStarted) {
+                        current.declarations++;
+                        declarationStarted = false;
+                    }
+                    if (c == '}') {
+                        depth = 0;
+                    }
+                    continue;
+                } else if (c == '{') {
+                    errors.add("unexpected '{' at line " + line);
+                }
+                declarationStarted = true;
+            }
+        }
+        if (depth > 0 || atRule) {
+            errors.add("unclosed block at the end of the file");
+        }
+        return rules;
+    }
+
+    /**
+     * @return the index of the closing quote of the string starting at the given index, -1 if not closed
+     */
+    private static int endOfString(String css, int start) {
+        char quote = css.charAt(start);
+        for (int i = start + 1; i < css.length(); i++) {
+            char c = css.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int count(String text, char c, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Style rule found by the scan.
+     */
+    private static class ScannedRule {
+        private final int line;
+        private int declarations;
+
+        private ScannedRule(int line) {
+            this.line = line;
+        }
+    }
+}
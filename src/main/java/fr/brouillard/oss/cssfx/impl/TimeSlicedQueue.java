@@ -0,0 +1,165 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Work queue processed in time-boxed slices, so that a large amount of work on the JavaFX Application Thread does not freeze the application.
+ * <p>
+ * Each slice processes the pending items in insertion order until the queue is empty or its budget is exhausted, at least one item being processed;
+ * the remaining items are processed by the next slice, scheduled through the given executor, by default on the next pulse (see {@link #nextPulse()}).
+ * Processing an item may add new items, which replaces the recursion of a graph walk by an explicit queue.
+ * Not thread safe, the queue must be used from a single thread.
+ *
+ * @param <T> type of the items
+ * @author Matthieu Brouillard
+ */
+public class TimeSlicedQueue<T> {
+    /**
+     * Default budget of a slice, leaving most of a 60 fps frame to the application.
+     */
+    public static final Duration DEFAULT_SLICE_BUDGET = Duration.ofMillis(2);
+
+    private final Consumer<? super T> processor;
+    private final long sliceBudgetNanos;
+    private final Executor nextSlice;
+    private final Deque<T> pending = new ArrayDeque<>();
+    private SliceListener sliceListener;
+    private boolean processing = false;
+    private boolean scheduled = false;
+    private long processedCount = 0;
+
+    /**
+     * Listener of the slices processed by the queue.
+     */
+    @FunctionalInterface
+    public static interface SliceListener {
+        /**
+         * @param processedItems the number of items processed by the slice
+         * @param pendingItems the number of items left for the next slices
+         * @param elapsedNanos the duration of the slice
+         */
+        public void sliceProcessed(int processedItems, int pendingItems, long elapsedNanos);
+    }
+
+    /**
+     * @param processor the processor of the items, may add items to the queue
+     * @param sliceBudget the duration after which a slice stops processing items, zero or negative to process all the items in one slice
+     * @param nextSlice executor of the next slice when items remain
+     */
+    public TimeSlicedQueue(Consumer<? super T> processor, Duration sliceBudget, Executor nextSlice) {
+        this.processor = processor;
+        this.sliceBudgetNanos = (sliceBudget.isZero() || sliceBudget.isNegative()) ? Long.MAX_VALUE : sliceBudget.toNanos();
+        this.nextSlice = nextSlice;
+    }
+
+    /**
+     * @return an executor running each task on the JavaFX Application Thread at the next pulse, must be used from the JavaFX Application Thread
+     */
+    public static Executor nextPulse() {
+        return task -> new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                task.run();
+            }
+        }.start();
+    }
+
+    public void setSliceListener(SliceListener sliceListener) {
+        this.sliceListener = sliceListener;
+    }
+
+    /**
+     * Adds an item, processed by the current slice if called while processing an item, by the next one otherwise.
+     * @param item the item to process
+     */
+    public void add(T item) {
+        pending.add(item);
+    }
+
+    /**
+     * Processes a slice of the pending items now, scheduling the next slice if items remain.
+     * Does nothing if the queue is empty or if called while processing an item.
+     */
+    public void processSlice() {
+        if (processing || pending.isEmpty()) {
+            return;
+        }
+        processing = true;
+        long start = System.nanoTime();
+        int processed = 0;
+        try {
+            do {
+                processor.accept(pending.poll());
+                processed++;
+            } while (!pending.isEmpty() && System.nanoTime() - start < sliceBudgetNanos);
+        } finally {
+            processing = false;
+            processedCount += processed;
+            if (!pending.isEmpty()) {
+                scheduleSlice();
+            }
+        }
+        if (sliceListener != null) {
+            sliceListener.sliceProcessed(processed, pending.size(), System.nanoTime() - start);
+        }
+    }
+
+    private void scheduleSlice() {
+        if (!scheduled) {
+            scheduled = true;
+            nextSlice.execute(() -> {
+                scheduled = false;
+                processSlice();
+            });
+        }
+    }
+
+    /**
+     * Forgets the pending items.
+     */
+    public void clear() {
+        pending.clear();
+    }
+
+    /**
+     * @return the number of items waiting for a slice
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of items processed since the creation of the queue
+     */
+    public long processedCount() {
+        return processedCount;
+    }
+}
@@ -0,0 +1,190 @@
+package fr.brouillard.oss.cssfx.impl;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import fr.brouillard.oss.cssfx.api.URIToPathConverter;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+
+/**
+ * Memoization of the resolution of stylesheets URIs to their source file, owned by a monitor.
+ * Resolutions are kept per URI and converters list, the list being compared by identity: the owner must {@link #clear()} the cache
+ * when it modifies its converters.
+ * URIs without source are also remembered, until a file with the same name is created in a watched directory.
+ * Concurrent asynchronous resolutions of the same URI with the same converters share a single lookup.
+ *
+ * @author Matthieu Brouillard
+ */
+public class URIResolutionCache {
+    private final Map<Lookup, Resolution> resolutions = new ConcurrentHashMap<>();
+    // URIs without source indexed by the file name they reference, the creation of such a file may give them a source
+    private final Map<String, Set<Lookup>> unresolvedByFileName = new ConcurrentHashMap<>();
+    private final Map<Lookup, CompletableFuture<Path>> lookups = new ConcurrentHashMap<>();
+
+    /**
+     * Resolves the source file of the given URI, computing it only if not yet known for the given converters.
+     *
+     * @param uri the stylesheet URI as declared in a stylesheets list
+     * @param converters the converters used by the resolver, a resolution is reused only for the same converters list instance
+     * @param resolver the resolution to use when the URI is not yet known
+     * @return the source file of the URI, or null if it has none
+     */
+    public Path resolve(String uri, List<URIToPathConverter> converters, Function<String, Path> resolver) {
+        Lookup key = new Lookup(uri, converters);
+        Resolution known = resolutions.get(key);
+        if (known != null) {
+            return known.source;
+        }
+
+        Path source = resolver.apply(uri);
+        remember(key, source);
+        return source;
+    }
+
+    /**
+     * Resolves asynchronously the source file of the given URI, starting a lookup only if the URI is neither known nor being looked up for the given converters.
+     *
+     * @param uri the stylesheet URI as declared in a stylesheets list
+     * @param converters the converters used by the resolver
+     * @param resolver the asynchronous resolution to use when the URI is not yet known
+     * @return a future completed with the source file of the URI, or with null if it has none
+     */
+    public CompletableFuture<Path> resolveAsync(String uri, List<URIToPathConverter> converters, Function<String, CompletableFuture<Path>> resolver) {
+        Lookup key = new Lookup(uri, converters);
+        Resolution known = resolutions.get(key);
+        if (known != null) {
+            return CompletableFuture.completedFuture(known.source);
+        }
+
+        CompletableFuture<Path> lookup = new CompletableFuture<>();
+        CompletableFuture<Path> running = lookups.putIfAbsent(key, lookup);
+        if (running != null) {
+            return running;
+        }
+        // completed outside of the map update, the resolver may complete synchronously
+        resolver.apply(uri).whenComplete((source, error) -> {
+            if (error == null) {
+                remember(key, source);
+            }
+            lookups.remove(key, lookup);
+            if (error == null) {
+                lookup.complete(source);
+            } else {
+                lookup.completeExceptionally(error);
+            }
+        });
+        return lookup;
+    }
+
+    private void remember(Lookup key, Path source) {
+        resolutions.put(key, new Resolution(source));
+        if (source == null) {
+            unresolvedByFileName.computeIfAbsent(fileName(key.uri), k -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+    }
+
+    /**
+     * Forgets the URIs without source that could be resolved by the given new file.
+     * @param createdFile a file that has just been created
+     */
+    public void fileCreated(Path createdFile) {
+        Path fileName = createdFile.getFileName();
+        Set<Lookup> candidates = (fileName == null) ? null : unresolvedByFileName.remove(fileName.toString());
+        if (candidates != null) {
+            for (Lookup key : candidates) {
+                resolutions.computeIfPresent(key, (k, r) -> (r.source == null) ? null : r);
+            }
+            if (logger(URIResolutionCache.class).isEnabled(LogLevel.DEBUG)) {
+                logger(URIResolutionCache.class).debug("%s created, %d unresolved css will be resolved again", createdFile, candidates.size());
+            }
+        }
+    }
+
+    /**
+     * Forgets all the known resolutions.
+     */
+    public void clear() {
+        resolutions.clear();
+        unresolvedByFileName.clear();
+    }
+
+    /**
+     * @return the number of URIs with a known resolution, with or without source
+     */
+    public int size() {
+        return resolutions.size();
+    }
+
+    private static String fileName(String uri) {
+        int end = uri.length();
+        int query = uri.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        return uri.substring(uri.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    /**
+     * Key of a resolution or of a running lookup, the converters list being compared by identity.
+     */
+    private static final class Lookup {
+        private final String uri;
+        private final List<URIToPathConverter> converters;
+
+        private Lookup(String uri, List<URIToPathConverter> converters) {
+            this.uri = uri;
+            this.converters = converters;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uri, System.identityHashCode(converters));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Lookup)) {
+                return false;
+            }
+            Lookup other = (Lookup) obj;
+            return uri.equals(other.uri) && converters == other.converters;
+        }
+    }
+
+    private static class Resolution {
+        private final Path source;
+
+        private Resolution(Path source) {
+            this.source = source;
+        }
+    }
+}
@@ -23,176 +23,258 @@ package fr.brouillard.oss.cssfx.impl;
 
 import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
 
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import fr.brouillard.oss.cssfx.api.URIToPathConverter;
 
 public class URIToPathConverters {
-    private static final URIToPathConverter MAVEN_RESOURCE = new URIToPathConverter() {
+    private static final String[] MAIN_SOURCES = { "src/main/java", "src/main/resources" };
+    private static final String[] TEST_SOURCES = { "src/test/java", "src/test/resources" };
+    private static final String[] ALL_SOURCES = { "src/main/java", "src/main/resources", "src/test/java", "src/test/resources" };
+
+    /**
+     * Rules of the standard build tools: Maven, Gradle, IntelliJ and execution from a JAR built by Maven or Gradle.
+     */
+    public static final RuleBasedConverter DEFAULT_RULES = rules()
+            // maven
+            .withOutputDirectory("target/classes", MAIN_SOURCES)
+            .withOutputDirectory("target/test-classes", TEST_SOURCES)
+            // gradle
+            .withOutputDirectory("build/resources/main", MAIN_SOURCES)
+            .withOutputDirectory("build/resources/test", TEST_SOURCES)
+            // intellij
+            .withOutputDirectory("out/production/resources", MAIN_SOURCES)
+            .withOutputDirectory("out/test/resources", TEST_SOURCES)
+            // resource from maven or gradle jar in target/build directory
+            .withJarDirectory("target", ALL_SOURCES)
+            .withJarDirectory("build", ALL_SOURCES);
+
+    public static URIToPathConverter[] DEFAULT_CONVERTERS = {
+            DEFAULT_RULES
+    };
+
+    /**
+     * @return a converter without any rule, to be completed with the rules to apply
+     */
+    public static RuleBasedConverter rules() {
+        return new RuleBasedConverter(Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * A converter mapping files of build output directories (or of JARs built in a build directory) to the source directories they come from.
+     * <p>
+     * The rules are indexed by the directory names they start with, so that an URI is matched against all the rules in a single pass on its path segments;
+     * the cost of a conversion does not depend on the number of rules. The candidate source files are then checked in declaration order,
+     * the first existing one is returned.
+     * <p>
+     * Converters are immutable, adding a rule returns a new converter.
+     */
+    public static final class RuleBasedConverter implements URIToPathConverter {
+        // rules on output directories, indexed by the first segment of the output directory
+        private final Map<String, List<DirectoryRule>> directoryRules;
+        // source directories by build directory name, for the JARs built in such directory
+        private final Map<String, String[]> jarRules;
+
+        private RuleBasedConverter(Map<String, List<DirectoryRule>> directoryRules, Map<String, String[]> jarRules) {
+            this.directoryRules = directoryRules;
+            this.jarRules = jarRules;
+        }
+
+        /**
+         * Adds a rule mapping the files of a build output directory to source directories of the same project.
+         * For example {@code withOutputDirectory("target/classes", "src/main/java", "src/main/resources")}
+         * maps {@code file:/project/target/classes/app.css} to {@code /project/src/main/resources/app.css} if the file exists.
+         *
+         * @param outputDirectory the output directory, as relative path segments separated by '/'
+         * @param sourceDirectories the source directories to search, in order, as relative path segments separated by '/'
+         * @return a new converter including the rule
+         */
+        public RuleBasedConverter withOutputDirectory(String outputDirectory, String... sourceDirectories) {
+            String output = trimSlashes(outputDirectory);
+            String firstSegment = output.split("/", 2)[0];
+
+            Map<String, List<DirectoryRule>> rules = new HashMap<>(directoryRules);
+            List<DirectoryRule> sameFirstSegment = new ArrayList<>(rules.getOrDefault(firstSegment, Collections.emptyList()));
+            sameFirstSegment.add(new DirectoryRule(output, trimSlashes(sourceDirectories)));
+            rules.put(firstSegment, Collections.unmodifiableList(sameFirstSegment));
+            return new RuleBasedConverter(Collections.unmodifiableMap(rules), jarRules);
+        }
+
+        /**
+         * Adds a rule mapping the entries of the JARs built in a build directory to source directories of the same project.
+         * For example {@code withJarDirectory("target", "src/main/resources")}
+         * maps {@code jar:file:/project/target/app.jar!/app.css} to {@code /project/src/main/resources/app.css} if the file exists.
+         *
+         * @param buildDirectory the name of the directory, at the root of the project, containing the JARs
+         * @param sourceDirectories the source directories to search, in order, as relative path segments separated by '/'
+         * @return a new converter including the rule
+         */
+        public RuleBasedConverter withJarDirectory(String buildDirectory, String... sourceDirectories) {
+            Map<String, String[]> rules = new HashMap<>(jarRules);
+            rules.put(trimSlashes(buildDirectory), trimSlashes(sourceDirectories));
+            return new RuleBasedConverter(directoryRules, Collections.unmodifiableMap(rules));
+        }
+
+        /**
+         * @return true if the converter does not define any rule
+         */
+        public boolean isEmpty() {
+            return directoryRules.isEmpty() && jarRules.isEmpty();
+        }
+
+        /**
+         * The source root is the deepest source directory of the rules found in the path of the file,
+         * for example {@code /project/src/main/resources} for {@code /project/src/main/resources/css/app.css}.
+         */
         @Override
-        public Path convert(String uri) {
-            if (uri != null && uri.startsWith("file:")) {
-                if (uri.contains("target/classes")) {
-                    String[] classesTransform = {
-                            "src/main/java", "src/main/resources" };
-                    for (String ct : classesTransform) {
-                        String potentialSourceURI = uri.replace("target/classes", ct);
-                        try {
-                            Path p = Paths.get(new URI(potentialSourceURI));
-                            if (Files.exists(p)) {
-                                return p;
-                            }
-                        } catch (URISyntaxException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                } else if (uri.contains("target/test-classes")) {
-                    String[] testClassesTransform = {
-                            "src/test/java", "src/test/resources" };
-                    for (String tct : testClassesTransform) {
-                        String potentialSourceURI = uri.replace("target/test-classes", tct);
-                        try {
-                            Path p = Paths.get(new URI(potentialSourceURI));
-                            if (Files.exists(p)) {
-                                return p;
-                            }
-                        } catch (URISyntaxException e) {
-                            e.printStackTrace();
-                        }
-                    }
+        public Path sourceRoot(Path sourceFile) {
+            String uri = sourceFile.toUri().toString();
+            String root = null;
+            for (List<DirectoryRule> rules : directoryRules.values()) {
+                for (DirectoryRule rule : rules) {
+                    root = deepestRoot(uri, rule.sourceDirectories, root);
                 }
             }
-            logger(URIToPathConverters.class).debug("MAVEN converter failed to map css[%s] to a source file", uri);
+            for (String[] sourceDirectories : jarRules.values()) {
+                root = deepestRoot(uri, sourceDirectories, root);
+            }
+            return (root == null) ? null : Paths.get(URI.create(root));
+        }
 
-            return null;
+        private static String deepestRoot(String uri, String[] sourceDirectories, String currentRoot) {
+            String root = currentRoot;
+            for (String sourceDirectory : sourceDirectories) {
+                int at = uri.lastIndexOf('/' + sourceDirectory + '/');
+                if (at >= 0 && (root == null || at + sourceDirectory.length() + 1 > root.length())) {
+                    root = uri.substring(0, at + sourceDirectory.length() + 1);
+                }
+            }
+            return root;
         }
-    };
 
-    private static final URIToPathConverter GRADLE_RESOURCE = new URIToPathConverter() {
         @Override
         public Path convert(String uri) {
-            if (uri != null && uri.startsWith("file:")) {
-                if (uri.contains("build/resources/main")) {
-                    String[] classesTransform = {
-                            "src/main/java", "src/main/resources" };
-                    for (String ct : classesTransform) {
-                        String potentialSourceURI = uri.replace("build/resources/main", ct);
-                        try {
-                            Path p = Paths.get(new URI(potentialSourceURI));
-                            if (Files.exists(p)) {
-                                return p;
-                            }
-                        } catch (URISyntaxException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                } else if (uri.contains("build/resources/test")) {
-                    String[] testClassesTransform = {
-                            "src/test/java", "src/test/resources" };
-                    for (String tct : testClassesTransform) {
-                        String potentialSourceURI = uri.replace("build/resources/test", tct);
-                        try {
-                            Path p = Paths.get(new URI(potentialSourceURI));
-                            if (Files.exists(p)) {
-                                return p;
-                            }
-                        } catch (URISyntaxException e) {
-                            e.printStackTrace();
+            Path source = null;
+            if (uri != null) {
+                if (uri.startsWith("file:")) {
+                    source = convertFile(uri);
+                } else if (uri.startsWith("jar:file:")) {
+                    source = convertJarEntry(uri);
+                }
+            }
+            if (source == null) {
+                logger(URIToPathConverters.class).debug("converter rules failed to map css[%s] to a source file", uri);
+            }
+            return source;
+        }
+
+        private Path convertFile(String uri) {
+            // the last output directory of the path wins, it is the closest to the file
+            DirectoryRule matchedRule = null;
+            int matchedAt = -1;
+            int segmentStart = uri.indexOf('/') + 1;
+            int segmentEnd;
+            while ((segmentEnd = uri.indexOf('/', segmentStart)) >= 0) {
+                List<DirectoryRule> rules = directoryRules.get(uri.substring(segmentStart, segmentEnd));
+                if (rules != null) {
+                    for (DirectoryRule rule : rules) {
+                        if (rule.matchesAt(uri, segmentStart)) {
+                            matchedRule = rule;
+                            matchedAt = segmentStart;
                         }
                     }
                 }
+                segmentStart = segmentEnd + 1;
             }
-
-            logger(URIToPathConverters.class).debug("GRADLE converter failed to map css[%s] to a source file", uri);
-            return null;
+            if (matchedRule == null) {
+                return null;
+            }
+            String prefix = uri.substring(0, matchedAt);
+            String suffix = uri.substring(matchedAt + matchedRule.outputDirectory.length());
+            return firstExisting(prefix, matchedRule.sourceDirectories, suffix);
         }
-    };
 
+        private Path convertJarEntry(String uri) {
+            int entrySeparator = uri.indexOf("!/");
+            if (entrySeparator < 0) {
+                return null;
+            }
+            // "jar:file:/project/target/app.jar" -> "file:/project/target/app.jar"
+            String jarURI = uri.substring("jar:".length(), entrySeparator);
+            String[] matchedSources = null;
+            int matchedAt = -1;
+            int segmentStart = jarURI.indexOf('/') + 1;
+            int segmentEnd;
+            while ((segmentEnd = jarURI.indexOf('/', segmentStart)) >= 0) {
+                String[] sources = jarRules.get(jarURI.substring(segmentStart, segmentEnd));
+                if (sources != null) {
+                    matchedSources = sources;
+                    matchedAt = segmentStart;
+                }
+                segmentStart = segmentEnd + 1;
+            }
+            if (matchedSources == null) {
+                return null;
+            }
+            return firstExisting(jarURI.substring(0, matchedAt), matchedSources, uri.substring(entrySeparator + 1));
+        }
 
-    private static final URIToPathConverter INTELLIJ_RESOURCE = new URIToPathConverter() {
-        @Override
-        public Path convert(String uri) {
-            if (uri != null && uri.startsWith("file:")) {
-                if (uri.contains("out/production/resources")) {
-                    String[] classesTransform = {
-                            "src/main/java", "src/main/resources" };
-                    for (String ct : classesTransform) {
-                        String potentialSourceURI = uri.replace("out/production/resources", ct);
-                        try {
-                            Path p = Paths.get(new URI(potentialSourceURI));
-                            if (Files.exists(p)) {
-                                return p;
-                            }
-                        } catch (URISyntaxException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                } else if (uri.contains("out/test/resources")) {
-                    String[] testClassesTransform = {
-                            "src/test/java", "src/test/resources" };
-                    for (String tct : testClassesTransform) {
-                        String potentialSourceURI = uri.replace("out/test/resources", tct);
-                        try {
-                            Path p = Paths.get(new URI(potentialSourceURI));
-                            if (Files.exists(p)) {
-                                return p;
-                            }
-                        } catch (URISyntaxException e) {
-                            e.printStackTrace();
-                        }
+        private static Path firstExisting(String prefix, String[] sourceDirectories, String suffix) {
+            for (String sourceDirectory : sourceDirectories) {
+                String potentialSourceURI = prefix + sourceDirectory + suffix;
+                try {
+                    Path p = Paths.get(URI.create(potentialSourceURI));
+                    if (Files.exists(p)) {
+                        return p;
                     }
+                } catch (IllegalArgumentException e) {
+                    logger(URIToPathConverters.class).debug("invalid source uri[%s]", potentialSourceURI);
                 }
             }
-
-            logger(URIToPathConverters.class).debug("INTELLIJ converter failed to map css[%s] to a source file", uri);
             return null;
         }
-    };
-
 
-    private static Pattern[] JAR_PATTERNS = {
-            Pattern.compile("jar:file:/(.*)/target/(.*)\\.jar!/(.*\\.css)") // resource from maven jar in target directory
-            , Pattern.compile("jar:file:/(.*)/build/(.*)\\.jar!/(.*\\.css)") // resource from gradle jar in target directory
-    };
-    private static String[] JAR_SOURCES_REPLACEMENTS = {
-            "src/main/java", "src/main/resources", "src/test/java", "src/test/resources" };
+        private static String trimSlashes(String path) {
+            int start = 0;
+            int end = path.length();
+            while (start < end && path.charAt(start) == '/') {
+                start++;
+            }
+            while (end > start && path.charAt(end - 1) == '/') {
+                end--;
+            }
+            return path.substring(start, end);
+        }
 
-    private static final URIToPathConverter JAR_RESOURCE = new URIToPathConverter() {
-        @Override
-        public Path convert(String uri) {
-            String sourceFileURIPattern = "file:/%s/%s/%s";
-            for (Pattern jp : JAR_PATTERNS) {
-                Matcher m = jp.matcher(uri);
-                if (m.matches()) {
-                    for (String string : JAR_SOURCES_REPLACEMENTS) {
-                        String potentialSourceURI = String.format(sourceFileURIPattern, m.group(1), string, m.group(3));
-                        try {
-                            Path p = Paths.get(new URI(potentialSourceURI));
-                            if (Files.exists(p)) {
-                                return p;
-                            }
-                        } catch (URISyntaxException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
+        private static String[] trimSlashes(String[] paths) {
+            String[] trimmed = new String[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                trimmed[i] = trimSlashes(paths[i]);
             }
+            return trimmed;
+        }
+    }
 
-            logger(URIToPathConverters.class).debug("JAR converter failed to map css[%s] to a source file", uri);
-            return null;
+    private static final class DirectoryRule {
+        private final String outputDirectory;
+        private final String[] sourceDirectories;
+
+        private DirectoryRule(String outputDirectory, String[] sourceDirectories) {
+            this.outputDirectory = outputDirectory;
+            this.sourceDirectories = sourceDirectories;
         }
-    }; 
 
-    public static URIToPathConverter[] DEFAULT_CONVERTERS = {
-            MAVEN_RESOURCE
-            , GRADLE_RESOURCE
-            , JAR_RESOURCE
-            , INTELLIJ_RESOURCE
-    };
+        private boolean matchesAt(String uri, int offset) {
+            int end = offset + outputDirectory.length();
+            return end < uri.length() && uri.charAt(end) == '/' && uri.regionMatches(offset, outputDirectory, 0, outputDirectory.length());
+        }
+    }
 }
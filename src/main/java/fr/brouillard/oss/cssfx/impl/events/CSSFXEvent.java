@@ -24,6 +24,7 @@ package fr.brouillard.oss.cssfx.impl.events;
 public final class CSSFXEvent<T> {
     private final EventType eventType;
     private final T eventData;
+    private final long timestamp;
     
     public static enum EventType {
         STYLESHEET_ADDED
@@ -34,11 +35,42 @@ public final class CSSFXEvent<T> {
         , SCENE_REMOVED
         , STAGE_ADDED
         , STAGE_REMOVED
+        /**
+         * A slice of the registration of the monitored scene graph has been processed; data is a {@link RegistrationProgress}.
+         * Sent from the JavaFX Application Thread.
+         */
+        , REGISTRATION_PROGRESS
+        /**
+         * The events of a monitored source file have been coalesced, its reload is about to start; data is a {@link SourceReload} without lists count.
+         * Sent from the file watcher thread.
+         */
+        , FILE_CHANGED
+        /**
+         * A modified source file cannot be parsed, it is not reloaded and the stylesheets keep its last valid version; data is the {@link java.nio.file.Path} of the file.
+         * Sent from the file watcher thread.
+         */
+        , FILE_REJECTED
+        /**
+         * The rules of a modified source file have been compared with its last valid version; data is a {@link fr.brouillard.oss.cssfx.impl.StyleSheetDiff}
+         * giving the strategy used to apply the modification. Sent from the file watcher thread.
+         */
+        , RULES_COMPARED
+        /**
+         * The swaps of the stylesheets lists referencing a modified source file are requested; data is a {@link SourceReload}.
+         * Sent from the file watcher thread, or from the JavaFX Application Thread in lazy monitoring.
+         */
+        , RELOAD_SCHEDULED
+        /**
+         * The stylesheets lists referencing a modified source file have been updated; data is a {@link SourceReload}.
+         * Sent from the JavaFX Application Thread.
+         */
+        , STYLESHEET_RELOADED
     }
     
     private  CSSFXEvent(EventType type, T data) {
         eventType = type;
         eventData = data;
+        timestamp = System.nanoTime();
     }
 
     public EventType getEventType() {
@@ -48,6 +80,13 @@ public final class CSSFXEvent<T> {
     public T getEventData() {
         return eventData;
     }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the event was created
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
     
     public static <T> CSSFXEvent<T> newEvent(EventType type, T data) {
         return new CSSFXEvent<T>(type, data);
@@ -55,6 +94,6 @@ public final class CSSFXEvent<T> {
 
     @Override
     public String toString() {
-        return String.format("CSSFXEvent [eventType=%s, eventData=%s]", eventType, eventData);
+        return String.format("CSSFXEvent [eventType=%s, eventData=%s, timestamp=%d]", eventType, eventData, timestamp);
     }
 }
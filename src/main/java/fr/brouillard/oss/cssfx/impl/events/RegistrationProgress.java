@@ -0,0 +1,69 @@
+package fr.brouillard.oss.cssfx.impl.events;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Data of the {@link CSSFXEvent.EventType#REGISTRATION_PROGRESS} events, sent after each slice of the initial registration of the monitored scene graph, until {@code CSSFXMonitor.initialRegistration()} completes.
+ */
+public final class RegistrationProgress {
+    private final long registeredItems;
+    private final int pendingItems;
+    private final long sliceNanos;
+
+    public RegistrationProgress(long registeredItems, int pendingItems, long sliceNanos) {
+        this.registeredItems = registeredItems;
+        this.pendingItems = pendingItems;
+        this.sliceNanos = sliceNanos;
+    }
+
+    /**
+     * @return the number of windows, scenes &amp; nodes processed since the monitoring started
+     */
+    public long getRegisteredItems() {
+        return registeredItems;
+    }
+
+    /**
+     * @return the number of windows, scenes &amp; nodes waiting for the next slices
+     */
+    public int getPendingItems() {
+        return pendingItems;
+    }
+
+    /**
+     * @return the time spent on the JavaFX Application Thread by the slice
+     */
+    public long getSliceNanos() {
+        return sliceNanos;
+    }
+
+    /**
+     * @return true if the known scene graph is entirely registered
+     */
+    public boolean isCompleted() {
+        return pendingItems == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RegistrationProgress [registeredItems=%d, pendingItems=%d, sliceNanos=%d]", registeredItems, pendingItems, sliceNanos);
+    }
+}
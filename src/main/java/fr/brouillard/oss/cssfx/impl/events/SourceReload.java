@@ -0,0 +1,63 @@
+package fr.brouillard.oss.cssfx.impl.events;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.file.Path;
+
+/**
+ * Data of the reload events of a source file.
+ * The end to end latency of a reload is the timestamp of its {@link CSSFXEvent.EventType#STYLESHEET_RELOADED} event minus {@link #getFileEventTimestamp()}.
+ */
+public final class SourceReload {
+    private final Path sourceFile;
+    private final long fileEventTimestamp;
+    private final int stylesheetsLists;
+
+    public SourceReload(Path sourceFile, long fileEventTimestamp, int stylesheetsLists) {
+        this.sourceFile = sourceFile;
+        this.fileEventTimestamp = fileEventTimestamp;
+        this.stylesheetsLists = stylesheetsLists;
+    }
+
+    public Path getSourceFile() {
+        return sourceFile;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the first file event of the modification
+     */
+    public long getFileEventTimestamp() {
+        return fileEventTimestamp;
+    }
+
+    /**
+     * @return the number of stylesheets lists to update ({@link CSSFXEvent.EventType#RELOAD_SCHEDULED}) or updated ({@link CSSFXEvent.EventType#STYLESHEET_RELOADED}),
+     * 0 for {@link CSSFXEvent.EventType#FILE_CHANGED}
+     */
+    public int getStylesheetsLists() {
+        return stylesheetsLists;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SourceReload [sourceFile=%s, fileEventTimestamp=%d, stylesheetsLists=%d]", sourceFile, fileEventTimestamp, stylesheetsLists);
+    }
+}
@@ -0,0 +1,301 @@
+package fr.brouillard.oss.cssfx.impl.log;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.Logger;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LoggerFactory;
+
+/**
+ * Logger factory keeping the logging threads (often the JavaFX Application Thread) away from formatting and console I/O.
+ * <p>
+ * Log calls only store the raw record (level, message pattern, arguments) in a bounded ring buffer of preallocated records;
+ * a daemon thread formats and writes them the same way as the console logger.
+ * When the buffer is full, new records are either dropped (the number of dropped records is reported in the output) or the logging thread waits for free space.
+ * <p>
+ * The writer thread runs until the factory is {@link #close() closed}, which {@link CSSFXLogger#setLoggerFactory(LoggerFactory)} does when replacing it.
+ */
+public class AsyncLoggerFactory implements LoggerFactory, AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public static enum OverflowPolicy {
+        /** records logged while the buffer is full are discarded */
+        DROP,
+        /** the logging thread waits until the buffer has room for its record */
+        BLOCK
+    }
+
+    private final Record[] buffer;
+    private final OverflowPolicy overflowPolicy;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Thread writer;
+    private final Thread shutdownHook;
+    private final Logger logger = new Logger() {
+        @Override
+        public boolean isEnabled(LogLevel level) {
+            return CSSFXLogger.isLevelEnabled(level);
+        }
+
+        @Override
+        public void log(LogLevel level, String message, Object... args) {
+            if (isEnabled(level)) {
+                append(level, message, args);
+            }
+        }
+    };
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+    // all guarded by lock
+    private int head = 0;
+    private int size = 0;
+    private boolean writing = false;
+    private long dropped = 0;
+    private long reportedDropped = 0;
+    private boolean closed = false;
+
+    /**
+     * Builds an asynchronous factory writing to {@link System#out} &amp; {@link System#err},
+     * configured by the system properties {@code cssfx.log.async.capacity} (default {@value #DEFAULT_CAPACITY})
+     * and {@code cssfx.log.async.overflow} ({@code DROP} or {@code BLOCK}, default {@code DROP}).
+     * @return a new started factory
+     */
+    public static AsyncLoggerFactory fromSystemProperties() {
+        int capacity = DEFAULT_CAPACITY;
+        String capacityStr = System.getProperty("cssfx.log.async.capacity", String.valueOf(DEFAULT_CAPACITY));
+        try {
+            capacity = Integer.parseInt(capacityStr);
+        } catch (NumberFormatException ignore) {
+            System.err.println("[CSSFX] invalid value for cssfx.log.async.capacity, '" + capacityStr + "' is not a number");
+        }
+        if (capacity < 1) {
+            System.err.println("[CSSFX] invalid value for cssfx.log.async.capacity, '" + capacityStr + "' must be strictly positive");
+            capacity = DEFAULT_CAPACITY;
+        }
+
+        OverflowPolicy policy = OverflowPolicy.DROP;
+        String policyStr = System.getProperty("cssfx.log.async.overflow", OverflowPolicy.DROP.name());
+        try {
+            policy = OverflowPolicy.valueOf(policyStr);
+        } catch (IllegalArgumentException ignore) {
+            System.err.println("[CSSFX] invalid value for cssfx.log.async.overflow, '" + policyStr + "' is not allowed. Select one in: " + Arrays.asList(OverflowPolicy.values()));
+        }
+        return new AsyncLoggerFactory(capacity, policy, System.out, System.err);
+    }
+
+    /**
+     * Builds &amp; starts an asynchronous factory, its writer thread ends when the factory is closed or with the JVM.
+     * @param capacity the maximum number of records waiting to be written
+     * @param overflowPolicy what to do with records logged when the buffer is full
+     * @param out where to write the records
+     * @param err where to write the records of level {@link LogLevel#ERROR}
+     */
+    public AsyncLoggerFactory(int capacity, OverflowPolicy overflowPolicy, PrintStream out, PrintStream err) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be strictly positive");
+        }
+        this.buffer = new Record[capacity];
+        for (int i = 0; i < capacity; i++) {
+            buffer[i] = new Record();
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.out = out;
+        this.err = err;
+
+        writer = new Thread(this::writeRecords, "CSSFX-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        shutdownHook = new Thread(() -> flush(1, TimeUnit.SECONDS), "CSSFX-log-flush");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    @Override
+    public Logger getLogger(String loggerName) {
+        return logger;
+    }
+
+    /**
+     * @return the number of records dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for all the records logged until now to be written.
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if all the records were written, false if the timeout elapsed or the thread was interrupted
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (size > 0 || writing) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = idle.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending records, waiting at most one second, then stops the writer thread and removes the shutdown hook.
+     * Records logged afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // logging threads blocked on a full buffer drop their record
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flush(1, TimeUnit.SECONDS);
+        writer.interrupt();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is shutting down, the hook is already running
+        }
+    }
+
+    private void append(LogLevel level, String message, Object[] args) {
+        long timestamp = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (closed) {
+                dropped++;
+                return;
+            }
+            while (size == buffer.length) {
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    dropped++;
+                    return;
+                }
+                notFull.await();
+                if (closed) {
+                    dropped++;
+                    return;
+                }
+            }
+            buffer[(head + size) % buffer.length].set(timestamp, level, message, args);
+            size++;
+            notEmpty.signal();
+        } catch (InterruptedException e) {
+            // the record is lost, but the interruption is not
+            dropped++;
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeRecords() {
+        while (true) {
+            long timestamp;
+            LogLevel level;
+            String message;
+            Object[] args;
+            long droppedSinceLastWrite;
+
+            lock.lock();
+            try {
+                while (size == 0) {
+                    writing = false;
+                    idle.signalAll();
+                    notEmpty.await();
+                }
+                writing = true;
+                Record record = buffer[head];
+                timestamp = record.timestamp;
+                level = record.level;
+                message = record.message;
+                args = record.args;
+                record.clear();
+                head = (head + 1) % buffer.length;
+                size--;
+                droppedSinceLastWrite = dropped - reportedDropped;
+                reportedDropped = dropped;
+                notFull.signal();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if (droppedSinceLastWrite > 0) {
+                    err.println("[CSSFX] " + droppedSinceLastWrite + " log messages dropped, the asynchronous log buffer was full");
+                }
+                CSSFXLogger.print(out, err, Instant.ofEpochMilli(timestamp), level, message, args);
+            } catch (RuntimeException e) {
+                err.println("[CSSFX] cannot write log message '" + message + "': " + e);
+            }
+        }
+    }
+
+    private static final class Record {
+        private long timestamp;
+        private LogLevel level;
+        private String message;
+        private Object[] args;
+
+        private void set(long timestamp, LogLevel level, String message, Object[] args) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.message = message;
+            this.args = args;
+        }
+
+        private void clear() {
+            set(0, null, null, null);
+        }
+    }
+}
@@ -23,23 +23,33 @@ package fr.brouillard.oss.cssfx.impl.log;
 
 import java.io.PrintStream;
 import java.time.Clock;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 
 public class CSSFXLogger {
     private static final Clock clock = Clock.systemDefaultZone();
 
-    public static void setLoggerFactory(LoggerFactory factory) {
-        loggerFactory = factory;
+    /**
+     * Replaces the factory of the loggers, a replaced {@link AsyncLoggerFactory} being closed once its pending records are written.
+     * @param factory the new factory, null to use the default one on the next log
+     */
+    public static synchronized void setLoggerFactory(LoggerFactory factory) {
+        Loggers previous = loggers;
+        loggers = (factory == null) ? null : new Loggers(factory);
+        if (previous != null && previous.factory != factory && previous.factory instanceof AsyncLoggerFactory) {
+            ((AsyncLoggerFactory) previous.factory).close();
+        }
     }
 
     public static boolean isInitialized() {
-        return loggerFactory != null;
+        return loggers != null;
     }
     
     public static void setLogLevel(LogLevel newLevel) {
@@ -47,31 +57,69 @@ public class CSSFXLogger {
     }
 
     public static void console() {
-        loggerFactory = CONSOLE_LOGGER_FACTORY;
+        setLoggerFactory(CONSOLE_LOGGER_FACTORY);
     }
     
     public static void jul() {
-        loggerFactory = JUL_LOGGER_FACTORY;
+        setLoggerFactory(JUL_LOGGER_FACTORY);
     }
     
     public static void noop() {
-        loggerFactory = NOOP_LOGGER_FACTORY;
+        setLoggerFactory(NOOP_LOGGER_FACTORY);
+    }
+
+    /**
+     * Logs through a background thread, see {@link AsyncLoggerFactory#fromSystemProperties()} for the configuration.
+     * The asynchronous factory already in use, if any, is kept.
+     */
+    public static synchronized void async() {
+        Loggers current = loggers;
+        if (current == null || !(current.factory instanceof AsyncLoggerFactory)) {
+            setLoggerFactory(AsyncLoggerFactory.fromSystemProperties());
+        }
     }
     
     /*
-     * Always use one of the 2 following methods and never keep static references to a logger. 
+     * Always use one of the 2 following methods and never keep static references to a logger.
+     * Loggers are cached until the factory changes, so calling these methods on each log is cheap.
      */
     public static Logger logger(String loggerName) {
-        if (!isInitialized()) {
-            noop();
-        }
-        return loggerFactory.getLogger(loggerName);
+        return initializedLoggers().byName(loggerName);
     }
     public static Logger logger(Class<?> loggerClass) {
-        if (!isInitialized()) {
+        return initializedLoggers().byClass(loggerClass);
+    }
+
+    private static Loggers initializedLoggers() {
+        Loggers current = loggers;
+        if (current == null) {
             noop();
+            current = loggers;
+        }
+        return current;
+    }
+
+    /**
+     * Loggers created by a factory, a new instance replaces the cache when the factory changes.
+     */
+    private static final class Loggers {
+        private final LoggerFactory factory;
+        private final Map<Class<?>, Logger> byClass = new ConcurrentHashMap<>();
+        private final Map<String, Logger> byName = new ConcurrentHashMap<>();
+
+        private Loggers(LoggerFactory factory) {
+            this.factory = factory;
+        }
+
+        private Logger byClass(Class<?> loggerClass) {
+            Logger logger = byClass.get(loggerClass);
+            return (logger != null) ? logger : byClass.computeIfAbsent(loggerClass, factory::getLogger);
+        }
+
+        private Logger byName(String loggerName) {
+            Logger logger = byName.get(loggerName);
+            return (logger != null) ? logger : byName.computeIfAbsent(loggerName, factory::getLogger);
         }
-        return loggerFactory.getLogger(loggerClass);
     }
     
     public static enum LogLevel {
@@ -82,13 +130,59 @@ public class CSSFXLogger {
         DEBUG        
     } 
     
+    /**
+     * A logger, formatting messages with {@link String#format(String, Object...)}; a {@link Throwable} as last argument is logged with its stacktrace.
+     * <p>
+     * Calls on a disabled level do not allocate as long as the fixed-arity methods are used with object arguments (primitives are boxed by the caller),
+     * or the {@link Supplier} methods with a non capturing lambda.
+     * Use {@link #isEnabled(LogLevel)} to guard calls needing more or primitive arguments.
+     */
     @FunctionalInterface
     public static interface Logger {
         public void log(LogLevel level, String message, Object ... args);
+
+        /**
+         * @param level the level to check
+         * @return false if messages of the given level are discarded by this logger
+         */
+        public default boolean isEnabled(LogLevel level) {
+            return level != LogLevel.NONE;
+        }
+
+        public default void log(LogLevel level, Supplier<String> message) {
+            if (isEnabled(level)) {
+                log(level, "%s", message.get());
+            }
+        }
+
         public default void info(String message, Object ... args) {log(LogLevel.INFO, message, args);}; 
         public default void debug(String message, Object ... args) {log(LogLevel.DEBUG, message, args);}; 
         public default void warn(String message, Object ... args) {log(LogLevel.WARN, message, args);}; 
         public default void error(String message, Object ... args) {log(LogLevel.ERROR, message, args);}; 
+
+        public default void info(String message) {if (isEnabled(LogLevel.INFO)) log(LogLevel.INFO, message);}; 
+        public default void info(String message, Object arg) {if (isEnabled(LogLevel.INFO)) log(LogLevel.INFO, message, arg);}; 
+        public default void info(String message, Object arg1, Object arg2) {if (isEnabled(LogLevel.INFO)) log(LogLevel.INFO, message, arg1, arg2);}; 
+        public default void info(String message, Object arg1, Object arg2, Object arg3) {if (isEnabled(LogLevel.INFO)) log(LogLevel.INFO, message, arg1, arg2, arg3);}; 
+        public default void info(Supplier<String> message) {log(LogLevel.INFO, message);}; 
+
+        public default void debug(String message) {if (isEnabled(LogLevel.DEBUG)) log(LogLevel.DEBUG, message);}; 
+        public default void debug(String message, Object arg) {if (isEnabled(LogLevel.DEBUG)) log(LogLevel.DEBUG, message, arg);}; 
+        public default void debug(String message, Object arg1, Object arg2) {if (isEnabled(LogLevel.DEBUG)) log(LogLevel.DEBUG, message, arg1, arg2);}; 
+        public default void debug(String message, Object arg1, Object arg2, Object arg3) {if (isEnabled(LogLevel.DEBUG)) log(LogLevel.DEBUG, message, arg1, arg2, arg3);}; 
+        public default void debug(Supplier<String> message) {log(LogLevel.DEBUG, message);}; 
+
+        public default void warn(String message) {if (isEnabled(LogLevel.WARN)) log(LogLevel.WARN, message);}; 
+        public default void warn(String message, Object arg) {if (isEnabled(LogLevel.WARN)) log(LogLevel.WARN, message, arg);}; 
+        public default void warn(String message, Object arg1, Object arg2) {if (isEnabled(LogLevel.WARN)) log(LogLevel.WARN, message, arg1, arg2);}; 
+        public default void warn(String message, Object arg1, Object arg2, Object arg3) {if (isEnabled(LogLevel.WARN)) log(LogLevel.WARN, message, arg1, arg2, arg3);}; 
+        public default void warn(Supplier<String> message) {log(LogLevel.WARN, message);}; 
+
+        public default void error(String message) {if (isEnabled(LogLevel.ERROR)) log(LogLevel.ERROR, message);}; 
+        public default void error(String message, Object arg) {if (isEnabled(LogLevel.ERROR)) log(LogLevel.ERROR, message, arg);}; 
+        public default void error(String message, Object arg1, Object arg2) {if (isEnabled(LogLevel.ERROR)) log(LogLevel.ERROR, message, arg1, arg2);}; 
+        public default void error(String message, Object arg1, Object arg2, Object arg3) {if (isEnabled(LogLevel.ERROR)) log(LogLevel.ERROR, message, arg1, arg2, arg3);}; 
+        public default void error(Supplier<String> message) {log(LogLevel.ERROR, message);}; 
     }
 
     @FunctionalInterface
@@ -99,24 +193,40 @@ public class CSSFXLogger {
         public Logger getLogger(String loggerName);
     }
     
+    private static boolean isLastArgumentThrowable(Object ... args) {
+        return args.length > 0 && args[args.length-1] instanceof Throwable;
+    }
+
+    static boolean isLevelEnabled(LogLevel askedLevel) {
+        return askedLevel != LogLevel.NONE && askedLevel.ordinal() <= logLevel.ordinal();
+    }
+
+    /*
+     * Writes a log line the console way, to out or to err for errors.
+     */
+    static void print(PrintStream out, PrintStream err, Instant instant, LogLevel level, String message, Object ... args) {
+        List<Object> params = new ArrayList<Object>(args.length + 2);
+        params.add(instant);
+        params.add(level);
+        params.addAll(Arrays.asList(args));
+        final PrintStream writer = (LogLevel.ERROR.equals(level))?err:out;
+        writer.println(String.format("%s [%5s] " + message, params.toArray()));
+        if (isLastArgumentThrowable(args)) {
+            Throwable t = (Throwable) args[args.length-1];
+            t.printStackTrace(writer);
+        }
+    }
+
     private static final Logger CONSOLE_LOGGER = new Logger() {
-        private void printLastThrowableArgument(PrintStream output, Object ...args) {
-            if (args.length > 0 && Throwable.class.isAssignableFrom(args[args.length-1].getClass())) {
-                Throwable t = (Throwable) args[args.length-1];
-                t.printStackTrace(output);
-            }
+        @Override
+        public boolean isEnabled(LogLevel askedLevel) {
+            return isLevelEnabled(askedLevel);
         }
-        
+
         @Override
         public void log(LogLevel askedLevel, String message, Object ... args) {
-            if (askedLevel.ordinal() <= logLevel.ordinal()) {
-                List<Object> params = new ArrayList<Object>(args.length + 2);
-                params.add(clock.instant());
-                params.add(askedLevel);
-                params.addAll(Arrays.asList(args));
-                final PrintStream writer = (LogLevel.ERROR.equals(askedLevel))?System.err:System.out;
-                writer.println(String.format("%s [%5s] " + message, params.toArray()));
-                printLastThrowableArgument(writer, args);
+            if (isEnabled(askedLevel)) {
+                print(System.out, System.err, clock.instant(), askedLevel, message, args);
             }
         };
     };
@@ -135,12 +245,17 @@ public class CSSFXLogger {
             java.util.logging.Logger delegate = java.util.logging.Logger.getLogger(loggerName);
             
             return new Logger() {
+                @Override
+                public boolean isEnabled(LogLevel askedLevel) {
+                    return delegate.isLoggable(levelMapping.get(askedLevel));
+                }
+
                 @Override
                 public void log(LogLevel askedLevel, String message, Object ... args) {
                     Level julLevel = levelMapping.get(askedLevel);
                     
                     Supplier<String> log = () -> String.format(message, args);
-                    if (args.length > 0 && Throwable.class.isAssignableFrom(args[args.length-1].getClass())) {
+                    if (isLastArgumentThrowable(args)) {
                         Throwable t = (Throwable) args[args.length-1];
                         delegate.log(julLevel, t, log);
                     } else {
@@ -153,9 +268,18 @@ public class CSSFXLogger {
 
     private final static LoggerFactory CONSOLE_LOGGER_FACTORY = (s) -> CONSOLE_LOGGER;  
     
-    private final static Logger NOOP_LOGGER = (level, message, args) -> {};  
+    private final static Logger NOOP_LOGGER = new Logger() {
+        @Override
+        public boolean isEnabled(LogLevel level) {
+            return false;
+        }
+
+        @Override
+        public void log(LogLevel level, String message, Object ... args) {
+        }
+    };  
     private final static LoggerFactory NOOP_LOGGER_FACTORY = (s) -> NOOP_LOGGER;  
 
-    private static LoggerFactory loggerFactory = null;
-    private static LogLevel logLevel = LogLevel.INFO;
+    private static volatile Loggers loggers = null;
+    private static volatile LogLevel logLevel = LogLevel.INFO;
 }
@@ -0,0 +1,296 @@
+package fr.brouillard.oss.cssfx.impl.metrics;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import fr.brouillard.oss.cssfx.impl.monitoring.CleanupDetector;
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+
+/**
+ * Records the metrics of a monitor, recording methods only touch striped counters or volatile fields so they can be called from the hot paths.
+ * <p>
+ * The reload latency is measured from the first event of a modified file until its stylesheets lists have been updated.
+ */
+public class CSSFXMetrics implements CSSFXMonitorMXBean {
+    private static final AtomicInteger MONITORS = new AtomicInteger();
+
+    private final PathsWatcher watcher;
+    private volatile int knownWindows;
+    private volatile int knownScenes;
+    private volatile int knownNodes;
+    private final Map<String, LongAdder> reloadsPerFile = new ConcurrentHashMap<>();
+    private final LongAdder reloads = new LongAdder();
+    // skipped reloads are counted by the watcher, value at the last reset
+    private volatile long skippedReloadsBase;
+    private final LongAdder rejectedReloads = new LongAdder();
+    private final LongAdder unchangedRulesReloads = new LongAdder();
+    private final LongAdder uncompiledReloads = new LongAdder();
+    private final LongAdder registrationBatches = new LongAdder();
+    private final LongAdder registrationSwappedLists = new LongAdder();
+    private final Map<String, LongAdder> registrationBatchesPerScene = new ConcurrentHashMap<>();
+    private final LatencyHistogram reloadLatencies = new LatencyHistogram();
+    private final AtomicInteger pendingCleanups = new AtomicInteger();
+    private ObjectName objectName;
+
+    public CSSFXMetrics(PathsWatcher watcher) {
+        this.watcher = watcher;
+    }
+
+    /**
+     * Registers the metrics in the platform MBeanServer, failures are only logged.
+     */
+    public void register() {
+        try {
+            ObjectName name = new ObjectName("fr.brouillard.oss.cssfx:type=CSSFXMonitor,name=monitor-" + MONITORS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (Exception | LinkageError e) {
+            logger(CSSFXMetrics.class).warn("cannot register CSSFX metrics MBean: %s", e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName != null) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (Exception e) {
+                logger(CSSFXMetrics.class).warn("cannot unregister CSSFX metrics MBean: %s", e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * @return the name under which the metrics are registered, null if not registered
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public void setKnownWindows(int knownWindows) {
+        this.knownWindows = knownWindows;
+    }
+
+    public void setKnownScenes(int knownScenes) {
+        this.knownScenes = knownScenes;
+    }
+
+    public void setKnownNodes(int knownNodes) {
+        this.knownNodes = knownNodes;
+    }
+
+    /**
+     * Records the reload of a modified source file.
+     * @param file the modified file
+     */
+    public void fileChanged(Path file) {
+        reloads.increment();
+        reloadsPerFile.computeIfAbsent(file.toString(), f -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records a modification of a source file that cannot be parsed.
+     */
+    public void sourceRejected() {
+        rejectedReloads.increment();
+    }
+
+    /**
+     * Records a modification of a source file whose rules did not change.
+     */
+    public void rulesUnchanged() {
+        unchangedRulesReloads.increment();
+    }
+
+    /**
+     * Records a modification of a source file served as text because it cannot be compiled to the binary format.
+     */
+    public void sourceNotCompiled() {
+        uncompiledReloads.increment();
+    }
+
+    /**
+     * Records a batch of swaps of the stylesheets lists registered by the monitor.
+     * @param updatedLists the number of lists updated by the batch
+     */
+    public void registrationBatchApplied(int updatedLists) {
+        registrationBatches.increment();
+        registrationSwappedLists.add(updatedLists);
+    }
+
+    /**
+     * Records a batch of swaps of the stylesheets lists of a scene known at start, costing one CSS pass of the scene.
+     * @param scene the name of the scene
+     * @param updatedLists the number of lists updated by the batch
+     */
+    public void registrationBatchApplied(String scene, int updatedLists) {
+        registrationBatchApplied(updatedLists);
+        registrationBatchesPerScene.computeIfAbsent(scene, s -> new LongAdder()).increment();
+    }
+
+    /**
+     * @return the counter of the pending cleanups of the stylesheets lists monitored, to give to {@link CleanupDetector}
+     */
+    public AtomicInteger pendingCleanupsCounter() {
+        return pendingCleanups;
+    }
+
+    /**
+     * Records the update of the stylesheets lists referencing a modified source file.
+     * @param latencyNanos the delay between the first event of the file and the update
+     */
+    public void reloadApplied(long latencyNanos) {
+        reloadLatencies.record(latencyNanos);
+    }
+
+    @Override
+    public int getKnownWindows() {
+        return knownWindows;
+    }
+
+    @Override
+    public int getKnownScenes() {
+        return knownScenes;
+    }
+
+    @Override
+    public int getKnownNodes() {
+        return knownNodes;
+    }
+
+    @Override
+    public long getWatchedDirectories() {
+        return watcher.getWatchedDirectoriesCount();
+    }
+
+    @Override
+    public long getWatchedFiles() {
+        return watcher.getWatchedFilesCount();
+    }
+
+    @Override
+    public long getRegisteredActions() {
+        return watcher.getRegisteredActionsCount();
+    }
+
+    @Override
+    public int getPendingCleanups() {
+        return pendingCleanups.get();
+    }
+
+    @Override
+    public long getReloads() {
+        return reloads.sum();
+    }
+
+    @Override
+    public long getSkippedReloads() {
+        return watcher.getSkippedDispatchesCount() - skippedReloadsBase;
+    }
+
+    @Override
+    public long getRejectedReloads() {
+        return rejectedReloads.sum();
+    }
+
+    @Override
+    public long getUnchangedRulesReloads() {
+        return unchangedRulesReloads.sum();
+    }
+
+    @Override
+    public long getUncompiledReloads() {
+        return uncompiledReloads.sum();
+    }
+
+    @Override
+    public long getRegistrationBatches() {
+        return registrationBatches.sum();
+    }
+
+    @Override
+    public long getRegistrationSwappedLists() {
+        return registrationSwappedLists.sum();
+    }
+
+    @Override
+    public Map<String, Long> getRegistrationBatchesPerScene() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        registrationBatchesPerScene.forEach((scene, count) -> snapshot.put(scene, count.sum()));
+        return snapshot;
+    }
+
+    @Override
+    public Map<String, Long> getReloadsPerFile() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        reloadsPerFile.forEach((file, count) -> snapshot.put(file, count.sum()));
+        return snapshot;
+    }
+
+    @Override
+    public long getReloadLatencyCount() {
+        return reloadLatencies.count();
+    }
+
+    @Override
+    public double getReloadLatencyMeanMillis() {
+        return reloadLatencies.meanMillis();
+    }
+
+    @Override
+    public long getReloadLatencyMaxMillis() {
+        return reloadLatencies.maxMillis();
+    }
+
+    @Override
+    public Map<String, Long> getReloadLatencyHistogram() {
+        return reloadLatencies.snapshot();
+    }
+
+    @Override
+    public void resetCounters() {
+        reloads.reset();
+        skippedReloadsBase = watcher.getSkippedDispatchesCount();
+        rejectedReloads.reset();
+        unchangedRulesReloads.reset();
+        uncompiledReloads.reset();
+        registrationBatches.reset();
+        registrationSwappedLists.reset();
+        registrationBatchesPerScene.clear();
+        reloadsPerFile.clear();
+        reloadLatencies.reset();
+    }
+}
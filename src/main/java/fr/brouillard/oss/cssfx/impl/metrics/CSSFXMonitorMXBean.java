@@ -0,0 +1,121 @@
+package fr.brouillard.oss.cssfx.impl.metrics;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+
+/**
+ * Runtime metrics of a started {@link fr.brouillard.oss.cssfx.impl.CSSFXMonitor}, registered in the platform MBeanServer
+ * under {@code fr.brouillard.oss.cssfx:type=CSSFXMonitor,name=monitor-<n>}.
+ *
+ * @author Matthieu Brouillard
+ */
+public interface CSSFXMonitorMXBean {
+    /**
+     * @return the number of windows monitored, as of the last registration
+     */
+    int getKnownWindows();
+
+    /**
+     * @return the number of scenes monitored, as of the last registration
+     */
+    int getKnownScenes();
+
+    /**
+     * @return the number of nodes monitored, as of the last registration
+     */
+    int getKnownNodes();
+
+    long getWatchedDirectories();
+
+    long getWatchedFiles();
+
+    long getRegisteredActions();
+
+    /**
+     * @return the number of monitored stylesheets lists waiting to be garbage collected to release their registrations
+     */
+    int getPendingCleanups();
+
+    /**
+     * @return the number of source files modifications leading to a reload
+     */
+    long getReloads();
+
+    /**
+     * @return the number of source files modifications skipped because their content did not change
+     */
+    long getSkippedReloads();
+
+    /**
+     * @return the number of source files modifications not reloaded because the files cannot be parsed
+     */
+    long getRejectedReloads();
+
+    /**
+     * @return the number of source files modifications not swapped because their CSS rules did not change (comments, formatting...)
+     */
+    long getUnchangedRulesReloads();
+
+    /**
+     * @return the number of source files modifications served as text while binary stylesheets are active, because they use {@code @import} or cannot be compiled
+     */
+    long getUncompiledReloads();
+
+    /**
+     * @return the number of batches of swaps applied to the stylesheets lists registered by the monitor, each batch costing at most one CSS pass per scene
+     */
+    long getRegistrationBatches();
+
+    /**
+     * @return the number of stylesheets lists swapped to their source by the registrations
+     */
+    long getRegistrationSwappedLists();
+
+    /**
+     * @return the number of batches of swaps applied to the stylesheets lists of each scene known at start, each batch costing one CSS pass of the scene
+     */
+    Map<String, Long> getRegistrationBatchesPerScene();
+
+    /**
+     * @return the number of reloads by source file
+     */
+    Map<String, Long> getReloadsPerFile();
+
+    /**
+     * @return the number of measured delays between a file event and the update of the stylesheets
+     */
+    long getReloadLatencyCount();
+
+    double getReloadLatencyMeanMillis();
+
+    long getReloadLatencyMaxMillis();
+
+    /**
+     * @return the number of measured delays by upper bound, in milliseconds
+     */
+    Map<String, Long> getReloadLatencyHistogram();
+
+    /**
+     * Resets the reload counters &amp; latencies.
+     */
+    void resetCounters();
+}
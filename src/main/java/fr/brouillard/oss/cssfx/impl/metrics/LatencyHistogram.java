@@ -0,0 +1,87 @@
+package fr.brouillard.oss.cssfx.impl.metrics;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in buckets of powers of two milliseconds, recorded with striped counters.
+ */
+class LatencyHistogram {
+    // upper bounds: 1ms, 2ms, 4ms ... 8192ms, then an overflow bucket
+    private static final int BOUNDED_BUCKETS = 14;
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDED_BUCKETS + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long durationNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, durationNanos));
+        // index of the first power of two greater or equal to millis
+        int bucket = (millis <= 1) ? 0 : 64 - Long.numberOfLeadingZeros(millis - 1);
+        buckets[Math.min(bucket, BOUNDED_BUCKETS)].increment();
+        count.increment();
+        sumNanos.add(durationNanos);
+        maxNanos.accumulate(durationNanos);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    double meanMillis() {
+        long n = count.sum();
+        return (n == 0) ? 0 : sumNanos.sum() / 1e6 / n;
+    }
+
+    long maxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        for (int i = 0; i < BOUNDED_BUCKETS; i++) {
+            snapshot.put("<=" + (1L << i) + "ms", buckets[i].sum());
+        }
+        snapshot.put(">" + (1L << (BOUNDED_BUCKETS - 1)) + "ms", buckets[BOUNDED_BUCKETS].sum());
+        return snapshot;
+    }
+
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sumNanos.reset();
+        maxNanos.reset();
+    }
+}
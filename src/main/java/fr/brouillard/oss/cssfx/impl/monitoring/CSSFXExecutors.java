@@ -0,0 +1,114 @@
+package fr.brouillard.oss.cssfx.impl.monitoring;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors running the background work of CSSFX: the watching of the files, the registration of watched trees and the detection of cleanups.
+ * <p>
+ * By default, the work runs on virtual threads when the JVM supports them (JDK 21+), so the number of platform threads does not depend on the number of started monitors.
+ * On older JVMs a single pool of daemon threads is shared by all the monitors.
+ */
+public final class CSSFXExecutors {
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+    private static volatile Executor shared;
+
+    private CSSFXExecutors() {
+    }
+
+    /**
+     * @return true if the default executor runs the tasks on virtual threads
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL_THREADS != null;
+    }
+
+    /**
+     * @return the executor shared by default by all the monitors
+     */
+    public static Executor shared() {
+        Executor executor = shared;
+        if (executor == null) {
+            synchronized (CSSFXExecutors.class) {
+                executor = shared;
+                if (executor == null) {
+                    executor = isVirtual() ? fromThreadFactory(VIRTUAL_THREADS) : newDaemonPool();
+                    shared = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @param threadFactory the factory creating the threads
+     * @return an executor running each task on a new thread of the given factory
+     */
+    public static Executor fromThreadFactory(ThreadFactory threadFactory) {
+        return task -> threadFactory.newThread(task).start();
+    }
+
+    /**
+     * Runs a long running task under the given name, restoring the name of the thread once the task completes.
+     */
+    static void runNamed(String name, Runnable task) {
+        Thread current = Thread.currentThread();
+        String previousName = current.getName();
+        current.setName(name);
+        try {
+            task.run();
+        } finally {
+            current.setName(previousName);
+        }
+    }
+
+    private static ExecutorService newDaemonPool() {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "CSSFX-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Looks up reflectively {@code Thread.ofVirtual().name("CSSFX-worker-", 0).factory()}, CSSFX being compiled for Java 11.
+     * @return the factory of virtual threads, or null if the JVM does not support them
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Method name = builderType.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "CSSFX-worker-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // before JDK 21, or preview feature not enabled
+            return null;
+        }
+    }
+}
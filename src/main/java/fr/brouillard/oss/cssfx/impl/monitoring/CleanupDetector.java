@@ -20,53 +20,194 @@ package fr.brouillard.oss.cssfx.impl.monitoring;
  * #L%
  */
 
-import java.lang.ref.WeakReference;
-import java.lang.ref.ReferenceQueue;
-import java.util.HashSet;
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Runs actions once objects have been collected by the GC.
+ * <p>
+ * The collection is detected by a {@link Cleaner}, created on the first registration: the one of the given thread factory, shared by the detectors
+ * using the same factory, or a default one running on a dedicated daemon thread. The collected objects are then drained in batches on the executor
+ * of the detector, {@link CSSFXExecutors#shared()} by default, and the actions of a batch sharing the same dispatcher are handed to it in a single task:
+ * a GC collecting many stylesheets lists posts one {@code Platform.runLater} instead of one per list.
+ */
 public class CleanupDetector {
+    private static final AtomicInteger pending = new AtomicInteger();
+    // guarded by itself, one cleaner thread per factory
+    private static final Map<ThreadFactory, Cleaner> cleaners = new IdentityHashMap<>();
+    private static final CleanupDetector SHARED = new CleanupDetector(null, null);
 
-    private static HashSet<WeakReferenceWithRunnable> references = new HashSet<WeakReferenceWithRunnable>();
-    private static ReferenceQueue referenceQueue = new ReferenceQueue();
-
-    static {
-        Thread cleanupDetectorThread = new Thread(() -> {
-            while (true) {
-                try {
-                    WeakReferenceWithRunnable r = (WeakReferenceWithRunnable) referenceQueue.remove();
-                    references.remove(r);
-                    r.r.run();
-                } catch (Throwable e) {
-                    e.printStackTrace();
-                }
-            }
-        }, "CSSFX-cleanup-detector");
-        cleanupDetectorThread.setDaemon(true);
-        cleanupDetectorThread.start();
+    private final Executor executor;
+    private final ThreadFactory threadFactory;
+    private final Queue<Cleanup> collected = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile Cleaner cleaner;
+
+    /**
+     * @param executor the executor draining the collected objects, null for {@link CSSFXExecutors#shared()}
+     * @param threadFactory the factory creating the thread of the {@link Cleaner}, null to use a default daemon thread
+     */
+    public CleanupDetector(Executor executor, ThreadFactory threadFactory) {
+        this.executor = executor;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * @return the detector used by the static methods, draining on {@link CSSFXExecutors#shared()}
+     */
+    public static CleanupDetector shared() {
+        return SHARED;
     }
 
     /**
      * The runnable gets executed after the object has been collected by the GC.
      */
     public static void onCleanup(Object obj, Runnable r) {
-        onCleanup(new WeakReferenceWithRunnable(obj, referenceQueue, r));
+        onCleanup(obj, r, null);
     }
+
     /**
-     * This version of the method can be used to provide more information
-     * in the heap dump by extending WeakReferenceWithRunnable.
+     * The runnable gets executed by the given dispatcher after the object has been collected by the GC.
+     * The runnables collected together for the same dispatcher instance are executed by a single task of this dispatcher.
+     *
+     * @param obj the object to watch, it must not be reachable from the runnable
+     * @param r the action to run once the object has been collected
+     * @param dispatcher the executor running the action, null to run it directly while draining
      */
-    public static void onCleanup(WeakReferenceWithRunnable weakref) {
-        references.add(weakref);
+    public static void onCleanup(Object obj, Runnable r, Executor dispatcher) {
+        onCleanup(obj, r, dispatcher, null);
     }
 
     /**
-     * This class can be extended to provide more meta information to the method onCleanup.
+     * Same as {@link #onCleanup(Object, Runnable, Executor)}, also counting the cleanup in the given counter until its action is handed to the dispatcher.
+     *
+     * @param obj the object to watch, it must not be reachable from the runnable
+     * @param r the action to run once the object has been collected
+     * @param dispatcher the executor running the action, null to run it directly while draining
+     * @param pendingCount the counter of the pending cleanups of the caller, null if not counted
      */
-    public static class WeakReferenceWithRunnable extends WeakReference {
-        Runnable r = null;
-        WeakReferenceWithRunnable(Object ref, ReferenceQueue queue, Runnable r) {
-            super(ref, queue);
-            this.r = r;
+    public static void onCleanup(Object obj, Runnable r, Executor dispatcher, AtomicInteger pendingCount) {
+        SHARED.register(obj, r, dispatcher, pendingCount);
+    }
+
+    /**
+     * Registers an action run once the object has been collected, detected &amp; drained by the threads of this detector.
+     * @see #onCleanup(Object, Runnable, Executor, AtomicInteger)
+     */
+    public void register(Object obj, Runnable r, Executor dispatcher, AtomicInteger pendingCount) {
+        Cleanup cleanup = new Cleanup(r, dispatcher, pendingCount);
+        pending.incrementAndGet();
+        if (pendingCount != null) {
+            pendingCount.incrementAndGet();
+        }
+        cleaner().register(obj, () -> collected(cleanup));
+    }
+
+    /**
+     * @return the number of registered cleanups whose action has not yet been handed to its dispatcher, for all the callers
+     */
+    public static int pendingCleanups() {
+        return pending.get();
+    }
+
+    private Cleaner cleaner() {
+        Cleaner c = cleaner;
+        if (c == null) {
+            if (threadFactory == null) {
+                c = DetectorHolder.CLEANER;
+            } else {
+                synchronized (cleaners) {
+                    c = cleaners.computeIfAbsent(threadFactory, Cleaner::create);
+                }
+            }
+            cleaner = c;
         }
+        return c;
+    }
+
+    private void collected(Cleanup cleanup) {
+        collected.add(cleanup);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                ((executor == null) ? CSSFXExecutors.shared() : executor).execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        do {
+            Map<Executor, List<Cleanup>> batches = new IdentityHashMap<>();
+            List<Cleanup> direct = new ArrayList<>();
+            Cleanup cleanup;
+            while ((cleanup = collected.poll()) != null) {
+                if (cleanup.dispatcher == null) {
+                    direct.add(cleanup);
+                } else {
+                    batches.computeIfAbsent(cleanup.dispatcher, d -> new ArrayList<>()).add(cleanup);
+                }
+            }
+            draining.set(false);
+
+            batches.forEach((dispatcher, cleanups) -> {
+                handed(cleanups);
+                dispatcher.execute(() -> runAll(cleanups));
+            });
+            handed(direct);
+            runAll(direct);
+        } while (!collected.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private static void handed(List<Cleanup> cleanups) {
+        pending.addAndGet(-cleanups.size());
+        for (Cleanup cleanup : cleanups) {
+            if (cleanup.pendingCount != null) {
+                cleanup.pendingCount.decrementAndGet();
+            }
+        }
+    }
+
+    private static void runAll(List<Cleanup> cleanups) {
+        for (Cleanup cleanup : cleanups) {
+            try {
+                cleanup.action.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static final class Cleanup {
+        private final Runnable action;
+        private final Executor dispatcher;
+        private final AtomicInteger pendingCount;
+
+        private Cleanup(Runnable action, Executor dispatcher, AtomicInteger pendingCount) {
+            this.action = action;
+            this.dispatcher = dispatcher;
+            this.pendingCount = pendingCount;
+        }
+    }
+
+    /**
+     * Creates the cleaner, and its daemon thread, on the first registration only.
+     */
+    private static final class DetectorHolder {
+        private static final Cleaner CLEANER = Cleaner.create(r -> {
+            Thread t = new Thread(r, "CSSFX-cleanup-detector");
+            t.setDaemon(true);
+            return t;
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package fr.brouillard.oss.cssfx.impl.monitoring;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes a fingerprint of the content of files, to detect the modifications that rewrite identical bytes.
+ * The content is read through a reused direct buffer, so that no memory is allocated per file
+ * and the file is never kept mapped, which would prevent editors to save it on some platforms.
+ */
+final class ContentFingerprint {
+    /**
+     * Fingerprint of a file that does not exist or cannot be read.
+     */
+    static final long UNREADABLE = -1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32C checksum = new CRC32C();
+
+    /**
+     * @return the CRC32C of the file content combined with its size, or {@link #UNREADABLE}
+     */
+    synchronized long of(Path file) {
+        checksum.reset();
+        long size = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                if (!buffer.hasRemaining()) {
+                    size += update();
+                }
+            }
+            size += update();
+        } catch (IOException e) {
+            return UNREADABLE;
+        }
+        return (size << 32) ^ checksum.getValue();
+    }
+
+    private int update() {
+        buffer.flip();
+        int length = buffer.remaining();
+        checksum.update(buffer);
+        buffer.clear();
+        return length;
+    }
+}
@@ -0,0 +1,309 @@
+package fr.brouillard.oss.cssfx.impl.monitoring;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Detects the changes of files by comparing their last modification time &amp; size, for file systems where the WatchService does not deliver events.
+ * Each file is checked again after the minimum interval once it changed, its interval then doubles up to the maximum one while it stays untouched.
+ * Only the files due are checked on each poll, so thousands of cold files cost a few checks per poll.
+ * Directories are polled the same way to detect the files created &amp; deleted in them.
+ * <p>
+ * Files &amp; directories can be added or removed from any thread, the other methods must be called by the polling thread.
+ */
+final class FilePoller {
+    interface ChangeListener {
+        /**
+         * @param directory the watched directory containing the file
+         * @param file the absolute &amp; normalized path of the changed file
+         * @param kind the kind of change, one of ENTRY_CREATE, ENTRY_MODIFY or ENTRY_DELETE
+         * @param since the {@link System#nanoTime()} of the previous check of the file, the change occurred after it
+         */
+        void changed(Path directory, Path file, WatchEvent.Kind<Path> kind, long since);
+    }
+
+    private static final long MISSING = -1;
+
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    // registrations from any thread, applied by the polling thread
+    private final Queue<LongConsumer> requests = new ConcurrentLinkedQueue<>();
+    // only accessed by the polling thread
+    private final Map<Path, Entry> entries = new HashMap<>();
+    private final PriorityQueue<Entry> schedule = new PriorityQueue<>((e1, e2) -> Long.signum(e1.nextPoll - e2.nextPoll));
+
+    FilePoller(Duration minInterval, Duration maxInterval) {
+        this.minIntervalNanos = minInterval.toNanos();
+        this.maxIntervalNanos = Math.max(maxInterval.toNanos(), minIntervalNanos);
+    }
+
+    /**
+     * Starts polling a file, its current state being the reference for the next checks.
+     * A file can be watched several times, it is polled until it is unwatched as many times.
+     */
+    void watchFile(Path directory, Path file) {
+        Entry snapshot = new Entry(directory, file, false);
+        snapshot.lastPoll = System.nanoTime();
+        snapshot.read();
+        requests.add(now -> {
+            Entry entry = entries.get(file);
+            if (entry == null) {
+                entry = snapshot;
+                schedule(entry, now);
+            }
+            entry.users++;
+        });
+    }
+
+    void unwatchFile(Path file) {
+        requests.add(now -> release(file));
+    }
+
+    /**
+     * Starts polling a directory to detect the files created or deleted in it.
+     * A directory can be watched several times, it is polled until it is unwatched as many times.
+     *
+     * @param directory the directory to poll
+     * @param files true to also poll the modifications of all the files of the directory
+     */
+    void watchDirectory(Path directory, boolean files) {
+        Entry snapshot = new Entry(directory, directory, true);
+        snapshot.lastPoll = System.nanoTime();
+        snapshot.read();
+        requests.add(now -> {
+            Entry entry = entries.get(directory);
+            if (entry == null) {
+                entry = snapshot;
+                schedule(entry, now);
+            }
+            entry.users++;
+            if (files && !entry.pollFiles) {
+                entry.pollFiles = true;
+                for (Path child : entry.children) {
+                    watchChild(entry, child, now);
+                }
+            }
+        });
+    }
+
+    void unwatchDirectory(Path directory) {
+        requests.add(now -> release(directory));
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the next check, when {@link #poll(long, ChangeListener)} has to be called
+     */
+    long nextPoll(long now) {
+        applyRequests(now);
+        Entry next;
+        while ((next = schedule.peek()) != null && next.removed) {
+            schedule.poll();
+        }
+        // files can be registered meanwhile
+        return (next == null) ? now + maxIntervalNanos : next.nextPoll;
+    }
+
+    /**
+     * Checks the files that are due, reporting their changes to the given listener.
+     */
+    void poll(long now, ChangeListener listener) {
+        applyRequests(now);
+        Entry entry;
+        while ((entry = schedule.peek()) != null && entry.nextPoll - now <= 0) {
+            schedule.poll();
+            if (entry.removed) {
+                continue;
+            }
+            boolean changed = entry.directory ? checkDirectory(entry, now, listener) : checkFile(entry, listener);
+            entry.interval = changed ? minIntervalNanos : Math.min(entry.interval * 2, maxIntervalNanos);
+            entry.lastPoll = now;
+            entry.nextPoll = now + entry.interval;
+            schedule.add(entry);
+        }
+    }
+
+    /**
+     * @return the number of files &amp; directories currently polled
+     */
+    int size() {
+        return entries.size();
+    }
+
+    private boolean checkFile(Entry entry, ChangeListener listener) {
+        long lastModified = entry.lastModified;
+        long size = entry.size;
+        entry.read();
+        if (entry.lastModified == lastModified && entry.size == size) {
+            return false;
+        }
+        WatchEvent.Kind<Path> kind = StandardWatchEventKinds.ENTRY_MODIFY;
+        if (lastModified == MISSING) {
+            kind = StandardWatchEventKinds.ENTRY_CREATE;
+        } else if (entry.lastModified == MISSING) {
+            kind = StandardWatchEventKinds.ENTRY_DELETE;
+        }
+        listener.changed(entry.parent, entry.path, kind, entry.lastPoll);
+        return true;
+    }
+
+    private boolean checkDirectory(Entry entry, long now, ChangeListener listener) {
+        long lastModified = entry.lastModified;
+        Set<Path> children = entry.children;
+        entry.read();
+        if (entry.lastModified == lastModified) {
+            return false;
+        }
+        for (Path child : entry.children) {
+            if (!children.contains(child)) {
+                if (entry.pollFiles) {
+                    watchChild(entry, child, now);
+                }
+                listener.changed(entry.path, child, StandardWatchEventKinds.ENTRY_CREATE, entry.lastPoll);
+            }
+        }
+        for (Path child : children) {
+            if (!entry.children.contains(child)) {
+                if (entry.pollFiles) {
+                    release(child);
+                }
+                listener.changed(entry.path, child, StandardWatchEventKinds.ENTRY_DELETE, entry.lastPoll);
+            }
+        }
+        return true;
+    }
+
+    private void watchChild(Entry directory, Path child, long now) {
+        Entry entry = entries.get(child);
+        if (entry == null) {
+            entry = new Entry(directory.path, child, false);
+            entry.lastPoll = now;
+            entry.read();
+            schedule(entry, now);
+        }
+        entry.users++;
+    }
+
+    private void release(Path path) {
+        Entry entry = entries.get(path);
+        if (entry != null && --entry.users <= 0) {
+            entries.remove(path);
+            entry.removed = true;
+            if (entry.pollFiles) {
+                for (Path child : entry.children) {
+                    release(child);
+                }
+            }
+        }
+    }
+
+    private void schedule(Entry entry, long now) {
+        // the last poll is the time at which the entry was first read
+        entries.put(entry.path, entry);
+        entry.interval = minIntervalNanos;
+        entry.nextPoll = now + minIntervalNanos;
+        schedule.add(entry);
+    }
+
+    private void applyRequests(long now) {
+        LongConsumer request;
+        while ((request = requests.poll()) != null) {
+            request.accept(now);
+        }
+    }
+
+    /**
+     * Polled file or directory, with its last known state.
+     */
+    private static class Entry {
+        private final Path parent;
+        private final Path path;
+        private final boolean directory;
+        private boolean pollFiles;
+        private long lastModified = MISSING;
+        private long size = MISSING;
+        private Set<Path> children = Collections.emptySet();
+        private int users;
+        private long interval;
+        private long lastPoll;
+        private long nextPoll;
+        private boolean removed;
+
+        private Entry(Path parent, Path path, boolean directory) {
+            this.parent = parent;
+            this.path = path;
+            this.directory = directory;
+        }
+
+        private void read() {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+                size = attributes.size();
+            } catch (NoSuchFileException e) {
+                lastModified = MISSING;
+                size = MISSING;
+            } catch (IOException e) {
+                logger(FilePoller.class).debug("cannot read attributes of %s", path);
+                lastModified = MISSING;
+                size = MISSING;
+            }
+            if (directory) {
+                children = list();
+            }
+        }
+
+        private Set<Path> list() {
+            if (lastModified == MISSING) {
+                return Collections.emptySet();
+            }
+            try (Stream<Path> files = Files.list(path)) {
+                return files.filter(Files::isRegularFile)
+                        .map(p -> p.toAbsolutePath().normalize())
+                        .collect(Collectors.toCollection(HashSet::new));
+            } catch (IOException e) {
+                logger(FilePoller.class).debug("cannot list files of %s", path);
+                return Collections.emptySet();
+            }
+        }
+    }
+}
@@ -20,114 +20,566 @@ package fr.brouillard.oss.cssfx.impl.monitoring;
  * #L%
  */
 
-import com.sun.nio.file.SensitivityWatchEventModifier;
-
 import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
 
-import java.io.IOException;
-import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
 
 public class PathsWatcher {
-    private WatchService watchService;
-    private Map<String, Map<String, List<Runnable>>> filesActions = new HashMap<>();
-    private Thread watcherThread;
+    /**
+     * Default duration without any new event on a file before its actions are fired.
+     */
+    public static final Duration DEFAULT_QUIET_PERIOD = Duration.ofMillis(50);
+    /**
+     * Default maximum duration between the first event on a file and the firing of its actions.
+     */
+    public static final Duration DEFAULT_MAX_LATENCY = Duration.ofMillis(500);
+    /**
+     * Interval between two checks of a file that just changed, when files are polled.
+     */
+    public static final Duration POLL_MIN_INTERVAL = Duration.ofMillis(100);
+    /**
+     * Maximum interval between two checks of a file that does not change, when files are polled.
+     */
+    public static final Duration POLL_MAX_INTERVAL = Duration.ofSeconds(2);
+    /**
+     * Duration during which a change detected by polling waits for its native event, in {@link WatchMode#AUTO} mode.
+     */
+    public static final Duration NATIVE_EVENT_GRACE_PERIOD = Duration.ofSeconds(1);
+    /**
+     * System property selecting the default {@link WatchMode}, one of {@code native}, {@code polling} or {@code auto}.
+     */
+    public static final String WATCH_MODE_PROPERTY = "cssfx.watch.mode";
+
+    /**
+     * How the modifications of the files are detected.
+     */
+    public enum WatchMode {
+        /**
+         * Native file system events only, received through a {@link WatchService}, the default mode.
+         */
+        NATIVE,
+        /**
+         * Polling of the last modification time &amp; size of the monitored files only,
+         * for the file systems that do not deliver native events (network file systems, container bind mounts, ...).
+         */
+        POLLING,
+        /**
+         * Native events, the monitored files being also polled to switch to polling
+         * when a change is not notified by the file system, or when no {@link WatchService} can be created.
+         * The switch is definitive and applies to all the watchers of this mode: to be selected explicitly when the file system
+         * is not known to deliver native events.
+         */
+        AUTO
+    }
+
+    private final WatchHub hub;
+    // actions by file by directory, the lists of actions are immutable & replaced on each change so that they are read without locking;
+    // the files of a directory are only modified while holding its entry, through compute methods
+    private final ConcurrentMap<String, Map<String, List<Runnable>>> filesActions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<Consumer<Path>>> directoriesActions = new ConcurrentHashMap<>();
+    private final List<Consumer<Path>> creationListeners = new CopyOnWriteArrayList<>();
+    private final List<ObjLongConsumer<Path>> dispatchListeners = new CopyOnWriteArrayList<>();
+    private final List<Predicate<Path>> dispatchFilters = new CopyOnWriteArrayList<>();
+    private final LongAdder watchedDirectories = new LongAdder();
+    private final LongAdder watchedFiles = new LongAdder();
+    private final LongAdder registeredActions = new LongAdder();
+    private final LongAdder skippedDispatches = new LongAdder();
+    private final LongAdder rejectedDispatches = new LongAdder();
+    // content of the monitored files as of their last applied modification, computed by the hub thread: the first modification of a file only records it
+    private final ContentFingerprint fingerprint = new ContentFingerprint();
+    private final Map<Path, Long> fingerprints = new ConcurrentHashMap<>();
+    private Executor executor = CSSFXExecutors.shared();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final long quietPeriodNanos;
+    private final long maxLatencyNanos;
+    // only accessed by the hub thread, keeps the order in which files changed
+    private final Map<Path, PendingChange> pendingChanges = new LinkedHashMap<>();
 
     public PathsWatcher() {
+        this(DEFAULT_QUIET_PERIOD, DEFAULT_MAX_LATENCY);
+    }
+
+    public PathsWatcher(Duration quietPeriod, Duration maxLatency) {
+        this(quietPeriod, maxLatency, defaultWatchMode());
+    }
+
+    /**
+     * @return the mode defined by the {@value #WATCH_MODE_PROPERTY} system property, {@link WatchMode#NATIVE} if not defined
+     */
+    public static WatchMode defaultWatchMode() {
+        String mode = System.getProperty(WATCH_MODE_PROPERTY, WatchMode.NATIVE.name());
         try {
-            watchService = FileSystems.getDefault().newWatchService();
-        } catch (IOException e) {
-            logger(PathsWatcher.class).error("cannot create WatchService", e);
+            return WatchMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger(PathsWatcher.class).warn("invalid value for %s, '%s' is not allowed. Select one in: %s", WATCH_MODE_PROPERTY, mode, Arrays.asList(WatchMode.values()));
+            return WatchMode.NATIVE;
+        }
+    }
+
+    /**
+     * Creates a watcher that coalesces the events received for a same file.
+     * Actions of a file are fired once no new event has been received for that file during the quiet period,
+     * or at the latest once the max latency has elapsed since its first event.
+     * The file events are received from the {@link WatchHub} of the mode, shared with the other watchers of the same mode.
+     *
+     * @param quietPeriod duration without events before firing the actions of a file, {@link Duration#ZERO} fires on each batch of events
+     * @param maxLatency maximum duration between the first event of a file and the firing of its actions
+     * @param mode how the modifications of the files are detected
+     */
+    public PathsWatcher(Duration quietPeriod, Duration maxLatency, WatchMode mode) {
+        if (quietPeriod.isNegative() || maxLatency.isNegative()) {
+            throw new IllegalArgumentException("quiet period & max latency cannot be negative");
         }
+        this.quietPeriodNanos = quietPeriod.toNanos();
+        this.maxLatencyNanos = Math.max(maxLatency.toNanos(), quietPeriodNanos);
+        this.hub = WatchHub.acquire(mode);
+    }
+
+    /**
+     * Defines the executor running the registration of the watched trees &amp; the watching loop of the hub if not yet started, must be called before {@link #watch()}.
+     * The watching loop occupies a thread of the executor until the last watcher of the hub is stopped.
+     *
+     * @param executor the executor to use, by default {@link CSSFXExecutors#shared()}
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return true if the modifications are detected by polling the files, false if native events are used
+     */
+    public boolean isPolling() {
+        return hub.isPolling();
+    }
+
+    /**
+     * @return the hub providing the file events to this watcher
+     */
+    public WatchHub getHub() {
+        return hub;
+    }
+
+    private boolean isActive() {
+        return hub.isActive() && !stopped.get();
     }
 
     public void monitor(Path directory, Path sourceFile, Runnable action) {
-        if (watchService != null) {
-            logger(PathsWatcher.class).info("registering action %d for monitoring %s in %s", System.identityHashCode(action), sourceFile, directory);
-            Map<String, List<Runnable>> fileAction = filesActions.computeIfAbsent(
-                    directory.toString(), (p) -> {
-                        try {
-                            directory.register(watchService, new WatchEvent.Kind[]{ StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE}, SensitivityWatchEventModifier.HIGH);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        return new HashMap<>();
-                    });
-
-            List<Runnable> actions = fileAction.computeIfAbsent(sourceFile.toString(), k -> new LinkedList<>());
-            actions.add(action);
-            logger(PathsWatcher.class).debug("%d CSS modification actions registered for file %s", actions.size(), sourceFile);
+        if (isActive()) {
+            if (logger(PathsWatcher.class).isEnabled(LogLevel.INFO)) {
+                logger(PathsWatcher.class).info("registering action %d for monitoring %s in %s", System.identityHashCode(action), sourceFile, directory);
+            }
+            String fileKey = sourceFile.toString();
+            int[] fileActions = { 0 };
+            filesActions.compute(directory.toString(), (dir, files) -> {
+                Map<String, List<Runnable>> directoryFiles = (files == null) ? watchDirectory(directory) : files;
+                List<Runnable> actions = with(directoryFiles.get(fileKey), action);
+                directoryFiles.put(fileKey, actions);
+                fileActions[0] = actions.size();
+                return directoryFiles;
+            });
+            registeredActions.increment();
+            if (fileActions[0] == 1) {
+                watchedFiles.increment();
+                hub.watchFile(directory.toAbsolutePath().normalize(), sourceFile.toAbsolutePath().normalize());
+            }
+            if (logger(PathsWatcher.class).isEnabled(LogLevel.DEBUG)) {
+                logger(PathsWatcher.class).debug("%d CSS modification actions registered for file %s", fileActions[0], sourceFile);
+            }
         } else {
             logger(PathsWatcher.class).warn("no WatchService active, CSS monitoring cannot occur");
         }
     }
+
     public void unregister(Path directory, Path sourceFile, Runnable action) {
-        //Path directory, Path sourceFile, Runnable action
-        filesActions.get(directory.toString()).get(sourceFile.toString()).remove(action);
+        String fileKey = sourceFile.toString();
+        boolean[] removed = { false, false };
+        filesActions.computeIfPresent(directory.toString(), (dir, files) -> {
+            List<Runnable> actions = files.get(fileKey);
+            List<Runnable> remaining = without(actions, action);
+            if (remaining != actions) {
+                removed[0] = true;
+                if (remaining == null) {
+                    files.remove(fileKey);
+                    removed[1] = true;
+                } else {
+                    files.put(fileKey, remaining);
+                }
+            }
+            return pruned(dir, files);
+        });
+        // action removed, then file removed
+        if (removed[0]) {
+            registeredActions.decrement();
+            if (removed[1]) {
+                watchedFiles.decrement();
+                fingerprints.remove(sourceFile.toAbsolutePath().normalize());
+                hub.unwatchFile(sourceFile.toAbsolutePath().normalize());
+            }
+        }
+    }
+
+    /**
+     * Monitors all the files of a directory, the action is called with each modified file.
+     *
+     * @param directory the directory to monitor
+     * @param action the action called with the absolute & normalized path of each modified file
+     */
+    public void monitorDirectory(Path directory, Consumer<Path> action) {
+        if (isActive()) {
+            if (logger(PathsWatcher.class).isEnabled(LogLevel.INFO)) {
+                logger(PathsWatcher.class).info("registering action %d for monitoring all files in %s", System.identityHashCode(action), directory);
+            }
+            // before the directory is watched, so that it cannot be pruned meanwhile
+            directoriesActions.compute(directory.toString(), (dir, actions) -> with(actions, action));
+            filesActions.computeIfAbsent(directory.toString(), dir -> watchDirectory(directory));
+            hub.watchFiles(directory.toAbsolutePath().normalize());
+            registeredActions.increment();
+        } else {
+            logger(PathsWatcher.class).warn("no WatchService active, CSS monitoring cannot occur");
+        }
+    }
+
+    public void unregisterDirectory(Path directory, Consumer<Path> action) {
+        boolean[] removed = { false };
+        directoriesActions.computeIfPresent(directory.toString(), (dir, actions) -> {
+            List<Consumer<Path>> remaining = without(actions, action);
+            removed[0] = remaining != actions;
+            return remaining;
+        });
+        if (removed[0]) {
+            registeredActions.decrement();
+            Path watchedDirectory = directory.toAbsolutePath().normalize();
+            hub.unwatchFiles(watchedDirectory);
+            filesActions.computeIfPresent(directory.toString(), this::pruned);
+            if (!directoriesActions.containsKey(directory.toString())) {
+                // the files modified while the whole directory was monitored, but that are not monitored by themselves
+                Map<String, List<Runnable>> monitoredFiles = filesActions.get(directory.toString());
+                fingerprints.keySet().removeIf(file -> watchedDirectory.equals(file.getParent())
+                        && (monitoredFiles == null || !monitoredFiles.containsKey(file.toString())));
+            }
+        }
+    }
+
+    /**
+     * @return the files of the directory, or null to remove the directory if it has no more monitored file
+     */
+    private Map<String, List<Runnable>> pruned(String directory, Map<String, List<Runnable>> files) {
+        if (files.isEmpty() && !directoriesActions.containsKey(directory)) {
+            watchedDirectories.decrement();
+            hub.unwatchDirectory(Paths.get(directory).toAbsolutePath().normalize());
+            return null;
+        }
+        return files;
+    }
+
+    private static <T> List<T> with(List<T> actions, T action) {
+        List<T> copy = new ArrayList<>((actions == null) ? 1 : actions.size() + 1);
+        if (actions != null) {
+            copy.addAll(actions);
+        }
+        copy.add(action);
+        return Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * @return the actions without the given one, the same list if it does not contain the action, null if no action remains
+     */
+    private static <T> List<T> without(List<T> actions, T action) {
+        if (actions == null || !actions.contains(action)) {
+            return actions;
+        }
+        List<T> copy = new ArrayList<>(actions);
+        copy.remove(action);
+        return copy.isEmpty() ? null : Collections.unmodifiableList(copy);
+    }
+
+
+    /**
+     * Registers a listener called, from the watcher thread, with each file created in one of the watched directories.
+     * Contrary to actions, the listener is called as soon as the creation is detected, whether the file is monitored or not.
+     *
+     * @param listener the listener called with the absolute & normalized path of created files
+     */
+    public void addCreationListener(Consumer<Path> listener) {
+        creationListeners.add(listener);
+    }
+
+    public void removeCreationListener(Consumer<Path> listener) {
+        creationListeners.remove(listener);
+    }
+
+    /**
+     * Registers a listener called, from the watcher thread, each time the actions of a modified file are about to be fired.
+     *
+     * @param listener the listener called with the absolute &amp; normalized path of the modified file and the {@link System#nanoTime()} of its first event
+     */
+    public void addDispatchListener(ObjLongConsumer<Path> listener) {
+        dispatchListeners.add(listener);
+    }
+
+    public void removeDispatchListener(ObjLongConsumer<Path> listener) {
+        dispatchListeners.remove(listener);
+    }
+
+    /**
+     * Registers a filter called, from the watcher thread, before the dispatch listeners &amp; the actions of each modified file.
+     * When a filter rejects the file, nothing is fired for this modification.
+     *
+     * @param filter the filter called with the absolute &amp; normalized path of the modified file, returning false to reject the modification
+     */
+    public void addDispatchFilter(Predicate<Path> filter) {
+        dispatchFilters.add(filter);
+    }
+
+    public void removeDispatchFilter(Predicate<Path> filter) {
+        dispatchFilters.remove(filter);
+    }
+
+    /**
+     * @return the number of watched directories
+     */
+    public long getWatchedDirectoriesCount() {
+        return watchedDirectories.sum();
+    }
+
+    /**
+     * @return the number of files having at least one action
+     */
+    public long getWatchedFilesCount() {
+        return watchedFiles.sum();
+    }
+
+    /**
+     * @return the number of registered file &amp; directory actions
+     */
+    public long getRegisteredActionsCount() {
+        return registeredActions.sum();
+    }
+
+    /**
+     * @return the number of file modifications whose actions were not fired because the content of the file did not change
+     */
+    public long getSkippedDispatchesCount() {
+        return skippedDispatches.sum();
+    }
+
+    /**
+     * @return the number of file modifications whose actions were not fired because a dispatch filter rejected them
+     */
+    public long getRejectedDispatchesCount() {
+        return rejectedDispatches.sum();
+    }
+
+    /**
+     * Starts watching a directory, called once per directory while holding its entry.
+     * @return the map to hold the actions of the files of the directory
+     */
+    private Map<String, List<Runnable>> watchDirectory(Path directory) {
+        watchedDirectories.increment();
+        hub.watchDirectory(directory.toAbsolutePath().normalize());
+        return new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Watches recursively a source root: all its directories, including the ones created later, are registered once in the WatchService
+     * and the events are filtered in memory by monitored file. Once a root is watched, monitoring a file under it costs no registration.
+     * The registration of the directories is done in background, the roots being shared with the other watchers of the hub
+     * until the last of them is stopped.
+     *
+     * @param root the absolute &amp; normalized path of the directory to watch
+     * @return a future completed once the directories of the root are registered, exceptionally if the root cannot be watched
+     */
+    public CompletableFuture<Void> watchTree(Path root) {
+        return hub.watchTree(root, this, executor);
+    }
+
+    /**
+     * @return the number of source roots watched recursively
+     */
+    public int getWatchedTreesCount() {
+        return hub.getWatchedTreesCount();
     }
 
     public void watch() {
-        watcherThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                logger(PathsWatcher.class).info("starting to monitor physical files");
-                while (true) {
-                    WatchKey key;
-                    try {
-                        key = watchService.take();
-                    } catch (InterruptedException ex) {
-                        return;
-                    }
-                    Path directory = ((Path) key.watchable()).toAbsolutePath().normalize();
-
-                    for (WatchEvent<?> event : key.pollEvents()) {
-                        WatchEvent.Kind<?> kind = event.kind();
-                        logger(PathsWatcher.class).debug("'%s' change detected in directory %s", kind, directory);
-
-                        if (kind == StandardWatchEventKinds.ENTRY_MODIFY || kind == StandardWatchEventKinds.ENTRY_CREATE || kind == StandardWatchEventKinds.ENTRY_DELETE) {
-                            // it is a modification
-                            @SuppressWarnings("unchecked")
-                            WatchEvent<Path> ev = (WatchEvent<Path>) event;
-                            Path modifiedFile = directory.resolve(ev.context()).toAbsolutePath().normalize();
-
-                            if (filesActions.containsKey(directory.toString())) {
-                                logger(PathsWatcher.class).debug("file: %s was modified", modifiedFile.getFileName());
-                                Map<String, List<Runnable>> filesAction = filesActions.get(directory.toString());
-                                if (filesAction.containsKey(modifiedFile.toString())) {
-                                    logger(PathsWatcher.class).debug("file is monitored");
-                                    List<Runnable> actions = filesAction.get(modifiedFile.toString());
-                                    logger(PathsWatcher.class).debug("%d CSS modification will be performed ", actions.size());
-                                    
-                                    for (Runnable action : actions) {
-                                        action.run();
-                                    }
-                                } else {
-                                    logger(PathsWatcher.class).debug("file is not monitored");
-                                }
-                            }
-                        }
-                    }
-
-                    boolean valid = key.reset();
-                    if (!valid) {
-                        break;
-                    }
+        if (!isActive()) {
+            logger(PathsWatcher.class).warn("no WatchService active, CSS monitoring cannot occur");
+            return;
+        }
+        hub.subscribe(this, executor);
+    }
+
+    /**
+     * Stops the watcher, releasing its registrations in the hub. The hub is closed when its last watcher is stopped.
+     */
+    public void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        hub.unsubscribe(this);
+        for (String directory : directoriesActions.keySet()) {
+            for (int i = directoriesActions.getOrDefault(directory, Collections.emptyList()).size(); i > 0; i--) {
+                hub.unwatchFiles(Paths.get(directory).toAbsolutePath().normalize());
+            }
+        }
+        directoriesActions.clear();
+        for (Map.Entry<String, Map<String, List<Runnable>>> directory : filesActions.entrySet()) {
+            for (String file : directory.getValue().keySet()) {
+                hub.unwatchFile(Paths.get(file).toAbsolutePath().normalize());
+            }
+            hub.unwatchDirectory(Paths.get(directory.getKey()).toAbsolutePath().normalize());
+        }
+        filesActions.clear();
+        hub.unwatchTrees(this);
+        fingerprints.clear();
+        watchedDirectories.reset();
+        watchedFiles.reset();
+        registeredActions.reset();
+        hub.release();
+    }
+
+    /**
+     * Records a change received from the hub, called by the hub thread.
+     */
+    void recordChange(Path directory, Path modifiedFile, WatchEvent.Kind<?> kind, long now) {
+        if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+            for (Consumer<Path> listener : creationListeners) {
+                listener.accept(modifiedFile);
+            }
+        }
+        Map<String, List<Runnable>> filesAction = filesActions.get(directory.toString());
+        if (filesAction != null) {
+            logger(PathsWatcher.class).debug("file: %s was modified", modifiedFile.getFileName());
+            if (filesAction.containsKey(modifiedFile.toString()) || directoriesActions.containsKey(directory.toString())) {
+                logger(PathsWatcher.class).debug("file is monitored");
+                PendingChange change = pendingChanges.get(modifiedFile);
+                if (change == null) {
+                    pendingChanges.put(modifiedFile, new PendingChange(directory, now));
+                } else {
+                    change.lastEvent = now;
                 }
+            } else {
+                logger(PathsWatcher.class).debug("file is not monitored");
             }
-        }, "CSSFX-file-monitor");
-        watcherThread.setDaemon(true);
-        watcherThread.start();
+        }
     }
 
-    public void stop() {
-        watcherThread.interrupt();
+    /**
+     * @return the {@link System#nanoTime()} at which the next pending change is due, {@link Long#MAX_VALUE} if there is none
+     */
+    long nextDeadline(long now) {
+        long nextDeadline = Long.MAX_VALUE;
+        for (PendingChange change : pendingChanges.values()) {
+            nextDeadline = Math.min(nextDeadline, change.deadline());
+        }
+        return nextDeadline;
+    }
+
+    /**
+     * Fires the actions of the changes that are due, called by the hub thread.
+     */
+    void dispatchDueChanges(long now) {
+        Iterator<Map.Entry<Path, PendingChange>> it = pendingChanges.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, PendingChange> entry = it.next();
+            if (entry.getValue().deadline() - now > 0) {
+                continue;
+            }
+            it.remove();
+
+            Path modifiedFile = entry.getKey();
+            String directory = entry.getValue().directory.toString();
+            Map<String, List<Runnable>> filesAction = filesActions.get(directory);
+            List<Runnable> actions = (filesAction == null) ? null : filesAction.get(modifiedFile.toString());
+            List<Consumer<Path>> directoryActions = directoriesActions.get(directory);
+            if (actions == null && directoryActions == null) {
+                // unregistered while the change was pending, no fingerprint is kept for it
+                continue;
+            }
+            // "save all", touch or a checkout often rewrite identical bytes
+            long content = fingerprint.of(modifiedFile);
+            Long previousContent = fingerprints.get(modifiedFile);
+            if (previousContent != null && previousContent == content) {
+                skippedDispatches.increment();
+                logger(PathsWatcher.class).debug("content of %s did not change, actions are skipped", modifiedFile);
+                continue;
+            }
+            if (!accepted(modifiedFile)) {
+                rejectedDispatches.increment();
+                logger(PathsWatcher.class).debug("modification of %s rejected, actions are skipped", modifiedFile);
+                continue;
+            }
+            for (ObjLongConsumer<Path> listener : dispatchListeners) {
+                listener.accept(modifiedFile, entry.getValue().firstEvent);
+            }
+            if (actions != null) {
+                if (logger(PathsWatcher.class).isEnabled(LogLevel.DEBUG)) {
+                    logger(PathsWatcher.class).debug("%d CSS modification will be performed for %s", actions.size(), modifiedFile);
+                }
+
+                for (Runnable action : actions) {
+                    action.run();
+                }
+            }
+            if (directoryActions != null) {
+                for (Consumer<Path> action : directoryActions) {
+                    action.accept(modifiedFile);
+                }
+            }
+            // only applied contents are known: saving again a rejected content must apply it
+            fingerprints.put(modifiedFile, content);
+        }
+    }
+
+    private boolean accepted(Path modifiedFile) {
+        for (Predicate<Path> filter : dispatchFilters) {
+            if (!filter.test(modifiedFile)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Events received for a monitored file that did not yet lead to the firing of its actions.
+     */
+    private class PendingChange {
+        private final Path directory;
+        private final long firstEvent;
+        private long lastEvent;
+
+        private PendingChange(Path directory, long firstEvent) {
+            this.directory = directory;
+            this.firstEvent = firstEvent;
+            this.lastEvent = firstEvent;
+        }
+
+        private long deadline() {
+            return Math.min(lastEvent + quietPeriodNanos, firstEvent + maxLatencyNanos);
+        }
     }
 }
@@ -0,0 +1,639 @@
+package fr.brouillard.oss.cssfx.impl.monitoring;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.sun.nio.file.ExtendedWatchEventModifier;
+import com.sun.nio.file.SensitivityWatchEventModifier;
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher.WatchMode;
+
+/**
+ * Process wide source of file events, shared by all the {@link PathsWatcher} using the same {@link WatchMode}.
+ * <p>
+ * A hub owns the WatchService, the polling of the files &amp; a single thread decoding the events,
+ * each directory being registered once whatever the number of watchers interested in it.
+ * The events are then given to the subscribed watchers, that filter them against their own monitored files &amp; coalesce them with their own settings.
+ * The hub is reference counted: it is created by the first watcher &amp; closed when the last one is stopped.
+ */
+public final class WatchHub {
+    private static final WatchEvent.Kind<?>[] WATCHED_KINDS = { StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE };
+    // guarded by itself, as the users count of the hubs
+    private static final Map<WatchMode, WatchHub> HUBS = new EnumMap<>(WatchMode.class);
+
+    private final WatchMode mode;
+    private int users;
+    private volatile boolean closed;
+    private volatile WatchService watchService;
+    private final FilePoller poller;
+    // guarded by itself
+    private final Map<Path, DirectoryWatch> directories = new HashMap<>();
+    // recursively watched source roots, their registration being done in background, modified while holding directories
+    private final Map<Path, TreeWatch> roots = new ConcurrentHashMap<>();
+    private final Set<Path> nativeTreeRoots = ConcurrentHashMap.newKeySet();
+    private final List<PathsWatcher> subscribers = new CopyOnWriteArrayList<>();
+    private final Object loopLock = new Object();
+    private boolean loopStarted;
+    private Thread loopThread;
+    // AUTO mode only, accessed by the hub thread: last native event per directory & changes detected by polling not yet notified natively
+    private final Map<Path, Long> nativeEvents = new HashMap<>();
+    private final List<PolledChange> unconfirmedChanges = new LinkedList<>();
+
+    private WatchHub(WatchMode mode) {
+        this.mode = mode;
+        if (mode != WatchMode.POLLING) {
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+            } catch (IOException e) {
+                logger(WatchHub.class).error("cannot create WatchService", e);
+            }
+        }
+        if (mode != WatchMode.NATIVE) {
+            poller = new FilePoller(PathsWatcher.POLL_MIN_INTERVAL, PathsWatcher.POLL_MAX_INTERVAL);
+            if (watchService == null) {
+                logger(WatchHub.class).info("monitoring files by polling");
+            }
+        } else {
+            poller = null;
+        }
+    }
+
+    /**
+     * @return the hub of the given mode, created if needed, that must be released once not used anymore
+     */
+    static WatchHub acquire(WatchMode mode) {
+        synchronized (HUBS) {
+            WatchHub hub = HUBS.computeIfAbsent(mode, WatchHub::new);
+            hub.users++;
+            return hub;
+        }
+    }
+
+    /**
+     * Releases a hub acquired by {@link #acquire(WatchMode)}, the hub being closed if it is not used anymore.
+     */
+    void release() {
+        synchronized (HUBS) {
+            if (--users > 0) {
+                return;
+            }
+            HUBS.remove(mode, this);
+            closed = true;
+        }
+        synchronized (loopLock) {
+            if (loopThread != null) {
+                loopThread.interrupt();
+            }
+        }
+        closeWatchService();
+        logger(WatchHub.class).debug("%s watch hub closed", mode);
+    }
+
+    /**
+     * @return the mode of the hub
+     */
+    public WatchMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true once the last watcher using the hub has been stopped
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the number of watchers receiving the events of the hub
+     */
+    public int getSubscribersCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * @return the number of directories watched on behalf of the watchers, each one being registered once
+     */
+    public int getWatchedDirectoriesCount() {
+        synchronized (directories) {
+            return directories.size();
+        }
+    }
+
+    /**
+     * @return the number of source roots watched recursively
+     */
+    public int getWatchedTreesCount() {
+        return roots.size();
+    }
+
+    /**
+     * @return true if the modifications are detected by polling the files, false if native events are used
+     */
+    public boolean isPolling() {
+        return watchService == null && poller != null;
+    }
+
+    boolean isActive() {
+        return watchService != null || poller != null;
+    }
+
+    /**
+     * Watches a directory for one more user, the directory being registered by its first user only.
+     */
+    void watchDirectory(Path directory) {
+        synchronized (directories) {
+            DirectoryWatch watch = directories.get(directory);
+            if (watch == null) {
+                watch = new DirectoryWatch();
+                WatchService service = watchService;
+                // directories of the watched trees are already registered, without any syscall here
+                if (service != null && !isInTree(directory)) {
+                    try {
+                        watch.key = directory.register(service, WATCHED_KINDS, SensitivityWatchEventModifier.HIGH);
+                    } catch (ClosedWatchServiceException e) {
+                        // switched to polling meanwhile
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+                // polled once natively registered, so that a change in between cannot be missed by the native events
+                if (poller != null) {
+                    poller.watchDirectory(directory, false);
+                }
+                directories.put(directory, watch);
+            }
+            watch.users++;
+        }
+    }
+
+    /**
+     * Releases a directory watched by {@link #watchDirectory(Path)}, the directory being unregistered when its last user releases it.
+     */
+    void unwatchDirectory(Path directory) {
+        synchronized (directories) {
+            DirectoryWatch watch = directories.get(directory);
+            if (watch == null || --watch.users > 0) {
+                return;
+            }
+            directories.remove(directory);
+            // the key also serves the tree containing the directory
+            if (watch.key != null && !isInTree(directory)) {
+                watch.key.cancel();
+            }
+            if (poller != null) {
+                poller.unwatchDirectory(directory);
+            }
+        }
+    }
+
+    /**
+     * Polls the modifications of all the files of a directory, if files are polled.
+     */
+    void watchFiles(Path directory) {
+        if (poller != null) {
+            poller.watchDirectory(directory, true);
+        }
+    }
+
+    void unwatchFiles(Path directory) {
+        if (poller != null) {
+            poller.unwatchDirectory(directory);
+        }
+    }
+
+    /**
+     * Polls the modifications of a file, if files are polled.
+     */
+    void watchFile(Path directory, Path file) {
+        if (poller != null) {
+            poller.watchFile(directory, file);
+        }
+    }
+
+    void unwatchFile(Path file) {
+        if (poller != null) {
+            poller.unwatchFile(file);
+        }
+    }
+
+    /**
+     * Watches a tree on behalf of a watcher, the tree being registered by its first watcher only.
+     * A tree whose registration failed is forgotten, so that it can be watched again later.
+     * @see PathsWatcher#watchTree(Path)
+     */
+    CompletableFuture<Void> watchTree(Path root, PathsWatcher watcher, Executor executor) {
+        synchronized (directories) {
+            TreeWatch tree = roots.get(root);
+            if (tree == null) {
+                TreeWatch registering = new TreeWatch();
+                roots.put(root, registering);
+                registering.registered = CompletableFuture.runAsync(() -> registerTree(root, registering), executor);
+                registering.registered.whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        forgetTree(root, registering);
+                    }
+                });
+                tree = registering;
+            }
+            tree.users.add(watcher);
+            return tree.registered;
+        }
+    }
+
+    /**
+     * Releases the trees watched by a watcher, the trees not used anymore being unregistered.
+     */
+    void unwatchTrees(PathsWatcher watcher) {
+        synchronized (directories) {
+            for (Map.Entry<Path, TreeWatch> root : new ArrayList<>(roots.entrySet())) {
+                TreeWatch tree = root.getValue();
+                if (tree.users.remove(watcher) && tree.users.isEmpty()) {
+                    forgetTree(root.getKey(), tree);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets a tree, either released or whose registration failed: its keys are cancelled, except the ones serving
+     * other trees or watched directories, and the directories whose registration was left to the tree are registered again.
+     */
+    private void forgetTree(Path root, TreeWatch tree) {
+        synchronized (directories) {
+            if (!roots.remove(root, tree)) {
+                return;
+            }
+            nativeTreeRoots.remove(root);
+            releaseKeys(tree);
+            WatchService service = watchService;
+            for (Map.Entry<Path, DirectoryWatch> directory : directories.entrySet()) {
+                DirectoryWatch watch = directory.getValue();
+                if (watch.key == null && service != null && directory.getKey().startsWith(root) && !isInTree(directory.getKey())) {
+                    try {
+                        watch.key = directory.getKey().register(service, WATCHED_KINDS, SensitivityWatchEventModifier.HIGH);
+                    } catch (ClosedWatchServiceException e) {
+                        // switched to polling meanwhile
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the keys registered for a tree that is not watched anymore, the keys being shared by all the registrations of a directory.
+     */
+    private void releaseKeys(TreeWatch tree) {
+        synchronized (directories) {
+            synchronized (tree.keys) {
+                for (WatchKey key : tree.keys) {
+                    Path directory = ((Path) key.watchable()).toAbsolutePath().normalize();
+                    DirectoryWatch watch = directories.get(directory);
+                    if (watch != null && watch.key == null) {
+                        watch.key = key;
+                    } else if (watch == null && !isInTree(directory)) {
+                        key.cancel();
+                    }
+                }
+                tree.keys.clear();
+            }
+        }
+    }
+
+    boolean isInTree(Path directory) {
+        return treeOf(directory) != null;
+    }
+
+    /**
+     * @return the innermost tree containing the directory, or null if it is not in a watched tree
+     */
+    private TreeWatch treeOf(Path directory) {
+        if (roots.isEmpty()) {
+            return null;
+        }
+        for (Path p = directory; p != null; p = p.getParent()) {
+            TreeWatch tree = roots.get(p);
+            if (tree != null) {
+                return tree;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts giving the events to the watcher, the hub thread being started on the given executor if not yet running.
+     */
+    void subscribe(PathsWatcher watcher, Executor executor) {
+        subscribers.add(watcher);
+        synchronized (loopLock) {
+            if (loopStarted || closed) {
+                return;
+            }
+            loopStarted = true;
+        }
+        executor.execute(() -> CSSFXExecutors.runNamed("CSSFX-file-monitor", this::watchLoop));
+    }
+
+    void unsubscribe(PathsWatcher watcher) {
+        subscribers.remove(watcher);
+    }
+
+    /**
+     * Registers the directories of a tree, failing if the tree cannot be watched natively.
+     */
+    private void registerTree(Path root, TreeWatch tree) {
+        WatchService service = watchService;
+        if (service == null) {
+            throw new IllegalStateException("no WatchService to watch source root " + root);
+        }
+        if (!Files.isDirectory(root)) {
+            logger(WatchHub.class).warn("cannot watch source root %s: not a directory", root);
+            throw new IllegalArgumentException("source root is not a directory: " + root);
+        }
+        try {
+            // a single registration for the whole tree where supported (Windows)
+            tree.keys.add(root.register(service, WATCHED_KINDS, ExtendedWatchEventModifier.FILE_TREE, SensitivityWatchEventModifier.HIGH));
+            nativeTreeRoots.add(root);
+        } catch (UnsupportedOperationException e) {
+            // one registration per directory
+            registerDirectories(service, root, tree);
+        } catch (ClosedWatchServiceException e) {
+            throw new IllegalStateException("WatchService closed while watching source root " + root, e);
+        } catch (IOException e) {
+            logger(WatchHub.class).warn("cannot watch source root %s: %s", root, e);
+            throw new UncheckedIOException(e);
+        }
+        synchronized (directories) {
+            if (roots.get(root) != tree) {
+                // released while being registered
+                releaseKeys(tree);
+                return;
+            }
+        }
+        logger(WatchHub.class).info("watching source root %s", root);
+    }
+
+    private void registerDirectories(WatchService service, Path start, TreeWatch tree) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    tree.keys.add(dir.register(service, WATCHED_KINDS, SensitivityWatchEventModifier.HIGH));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (ClosedWatchServiceException e) {
+            // closed or switched to polling meanwhile
+        } catch (IOException e) {
+            logger(WatchHub.class).warn("cannot watch directories of %s: %s", start, e);
+        }
+    }
+
+    private void watchLoop() {
+        synchronized (loopLock) {
+            if (closed) {
+                return;
+            }
+            loopThread = Thread.currentThread();
+        }
+        try {
+            logger(WatchHub.class).info("starting to monitor physical files");
+            while (!closed) {
+                WatchKey key;
+                try {
+                    key = nextKey();
+                } catch (InterruptedException | ClosedWatchServiceException ex) {
+                    return;
+                }
+                if (key != null) {
+                    collectChanges(key);
+                    // invalid keys are the ones of deleted or unregistered directories
+                    key.reset();
+                }
+                if (poller != null) {
+                    pollChanges(System.nanoTime());
+                }
+                long now = System.nanoTime();
+                for (PathsWatcher subscriber : subscribers) {
+                    subscriber.dispatchDueChanges(now);
+                }
+            }
+        } finally {
+            synchronized (loopLock) {
+                loopThread = null;
+                // the thread may be reused by the executor
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void closeWatchService() {
+        WatchService service = watchService;
+        watchService = null;
+        if (service != null) {
+            // releases the underlying OS resources (inotify instance, ...)
+            try {
+                service.close();
+            } catch (IOException e) {
+                logger(WatchHub.class).debug("cannot close WatchService", e);
+            }
+        }
+    }
+
+    /**
+     * Waits for the next events, without delaying the dispatch of the pending changes of the subscribers.
+     * @return the next signalled key, or null if pending changes are due before any new event arrived
+     */
+    private WatchKey nextKey() throws InterruptedException {
+        WatchService service = watchService;
+        long now = System.nanoTime();
+        boolean timed = poller != null;
+        long nextDeadline = timed ? poller.nextPoll(now) : Long.MAX_VALUE;
+        for (PathsWatcher subscriber : subscribers) {
+            long deadline = subscriber.nextDeadline(now);
+            if (deadline != Long.MAX_VALUE) {
+                timed = true;
+                nextDeadline = Math.min(nextDeadline, deadline);
+            }
+        }
+        for (PolledChange change : unconfirmedChanges) {
+            nextDeadline = Math.min(nextDeadline, change.detected + PathsWatcher.NATIVE_EVENT_GRACE_PERIOD.toNanos());
+        }
+        if (!timed) {
+            if (service == null) {
+                // closed meanwhile
+                throw new ClosedWatchServiceException();
+            }
+            return service.take();
+        }
+        long timeout = nextDeadline - now;
+        if (service == null) {
+            if (timeout > 0) {
+                TimeUnit.NANOSECONDS.sleep(timeout);
+            }
+            return null;
+        }
+        if (timeout <= 0) {
+            return service.poll();
+        }
+        return service.poll(timeout, TimeUnit.NANOSECONDS);
+    }
+
+    private void collectChanges(WatchKey key) {
+        Path directory = ((Path) key.watchable()).toAbsolutePath().normalize();
+        long now = System.nanoTime();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            logger(WatchHub.class).debug("'%s' change detected in directory %s", kind, directory);
+
+            if (kind == StandardWatchEventKinds.ENTRY_MODIFY || kind == StandardWatchEventKinds.ENTRY_CREATE || kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                // it is a modification
+                @SuppressWarnings("unchecked")
+                WatchEvent<Path> ev = (WatchEvent<Path>) event;
+                Path modifiedFile = directory.resolve(ev.context()).toAbsolutePath().normalize();
+                // the context is relative to the root for the keys watching a whole tree
+                Path fileDirectory = modifiedFile.getParent();
+                if (poller != null) {
+                    nativeEvents.put(fileDirectory, now);
+                }
+                if (kind == StandardWatchEventKinds.ENTRY_CREATE && !nativeTreeRoots.contains(directory) && Files.isDirectory(modifiedFile)) {
+                    TreeWatch tree = treeOf(fileDirectory);
+                    WatchService service = watchService;
+                    if (tree != null && service != null) {
+                        registerDirectories(service, modifiedFile, tree);
+                    }
+                }
+                recordChange(fileDirectory, modifiedFile, kind, now);
+            }
+        }
+    }
+
+    private void recordChange(Path directory, Path modifiedFile, WatchEvent.Kind<?> kind, long now) {
+        for (PathsWatcher subscriber : subscribers) {
+            subscriber.recordChange(directory, modifiedFile, kind, now);
+        }
+    }
+
+    /**
+     * Polls the files that are due. While native events are used, the detected changes are only recorded
+     * once they were not notified by the file system during the grace period, switching definitively to polling.
+     */
+    private void pollChanges(long now) {
+        if (watchService == null) {
+            poller.poll(now, (directory, file, kind, since) -> recordChange(directory, file, kind, now));
+            return;
+        }
+        poller.poll(now, (directory, file, kind, since) -> unconfirmedChanges.add(new PolledChange(directory, file, kind, since, now)));
+
+        Iterator<PolledChange> it = unconfirmedChanges.iterator();
+        while (it.hasNext()) {
+            PolledChange change = it.next();
+            Long nativeEvent = nativeEvents.get(change.directory);
+            if (nativeEvent != null && nativeEvent - change.since > 0) {
+                // the file system notified it
+                it.remove();
+            } else if (now - change.detected - PathsWatcher.NATIVE_EVENT_GRACE_PERIOD.toNanos() >= 0) {
+                logger(WatchHub.class).warn("no file system event received for the modification of %s, switching to polling", change.file);
+                closeWatchService();
+                for (PolledChange missed : unconfirmedChanges) {
+                    recordChange(missed.directory, missed.file, missed.kind, missed.detected);
+                }
+                unconfirmedChanges.clear();
+                nativeEvents.clear();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registration of a directory, shared by its users.
+     */
+    private static class DirectoryWatch {
+        private WatchKey key;
+        private int users;
+    }
+
+    /**
+     * Recursive registration of a source root, shared by the watchers watching it.
+     */
+    private static class TreeWatch {
+        private final Set<PathsWatcher> users = new HashSet<>();
+        // keys of the directories of the tree, the tree being registered in background
+        private final List<WatchKey> keys = Collections.synchronizedList(new ArrayList<>());
+        private CompletableFuture<Void> registered;
+    }
+
+    /**
+     * Change detected by polling, waiting for its native event.
+     */
+    private static class PolledChange {
+        private final Path directory;
+        private final Path file;
+        private final WatchEvent.Kind<Path> kind;
+        private final long since;
+        private final long detected;
+
+        private PolledChange(Path directory, Path file, WatchEvent.Kind<Path> kind, long since, long detected) {
+            this.directory = directory;
+            this.file = file;
+            this.kind = kind;
+            this.since = since;
+            this.detected = detected;
+        }
+    }
+}
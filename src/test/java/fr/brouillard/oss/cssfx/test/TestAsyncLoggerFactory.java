@@ -0,0 +1,154 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.impl.log.AsyncLoggerFactory;
+import fr.brouillard.oss.cssfx.impl.log.AsyncLoggerFactory.OverflowPolicy;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestAsyncLoggerFactory {
+    private final CountDownLatch writerReleased = new CountDownLatch(1);
+    private final List<String> lines = new CopyOnWriteArrayList<>();
+    // blocks the writer thread until released, to fill the buffer
+    private final PrintStream output = new PrintStream(OutputStream.nullOutputStream()) {
+        @Override
+        public void println(String line) {
+            try {
+                writerReleased.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lines.add(line);
+        }
+    };
+
+    @AfterEach
+    public void resetLogger() {
+        writerReleased.countDown();
+        CSSFXLogger.setLogLevel(LogLevel.INFO);
+        CSSFXLogger.noop();
+    }
+
+    @Test
+    public void recordsAreWrittenInOrderByTheWriterThread() {
+        writerReleased.countDown();
+        AsyncLoggerFactory factory = new AsyncLoggerFactory(4, OverflowPolicy.BLOCK, output, output);
+        CSSFXLogger.setLogLevel(LogLevel.DEBUG);
+        Logger logger = factory.getLogger("test");
+
+        for (int i = 0; i < 20; i++) {
+            logger.debug("message %s", String.valueOf(i));
+        }
+        assertTrue(factory.flush(5, TimeUnit.SECONDS));
+
+        assertEquals(20, lines.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(lines.get(i).endsWith("[DEBUG] message " + i), lines.get(i));
+        }
+    }
+
+    @Test
+    public void recordsAreDroppedWhenTheBufferIsFull() {
+        AsyncLoggerFactory factory = new AsyncLoggerFactory(4, OverflowPolicy.DROP, output, output);
+        Logger logger = factory.getLogger("test");
+
+        for (int i = 0; i < 20; i++) {
+            logger.info("message %s", String.valueOf(i));
+        }
+        long dropped = factory.getDroppedCount();
+        assertTrue(dropped >= 15, dropped + " messages dropped");
+
+        writerReleased.countDown();
+        assertTrue(factory.flush(5, TimeUnit.SECONDS));
+        List<String> messages = lines.stream().filter(l -> l.contains("[ INFO] message")).collect(Collectors.toList());
+        assertEquals(20 - dropped, messages.size());
+        assertTrue(lines.stream().anyMatch(l -> l.contains(dropped + " log messages dropped")), lines.toString());
+    }
+
+    @Test
+    public void loggingThreadsWaitForRoomWhenBlocking() throws InterruptedException {
+        AsyncLoggerFactory factory = new AsyncLoggerFactory(2, OverflowPolicy.BLOCK, output, output);
+        Logger logger = factory.getLogger("test");
+
+        CountDownLatch logged = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                logger.info("message %s", String.valueOf(i));
+            }
+            logged.countDown();
+        });
+        producer.start();
+
+        assertTrue(!logged.await(200, TimeUnit.MILLISECONDS), "producer should be blocked on the full buffer");
+        writerReleased.countDown();
+        assertTrue(logged.await(5, TimeUnit.SECONDS));
+        assertTrue(factory.flush(5, TimeUnit.SECONDS));
+        assertEquals(10, lines.size());
+        assertEquals(0, factory.getDroppedCount());
+    }
+
+    @Test
+    public void closedFactoryWritesItsPendingRecordsAndDropsTheNextOnes() {
+        writerReleased.countDown();
+        AsyncLoggerFactory factory = new AsyncLoggerFactory(4, OverflowPolicy.BLOCK, output, output);
+        Logger logger = factory.getLogger("test");
+
+        logger.info("before close");
+        factory.close();
+        logger.info("after close");
+
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).endsWith("before close"), lines.get(0));
+        assertEquals(1, factory.getDroppedCount());
+    }
+
+    @Test
+    public void replacedFactoryIsClosed() {
+        writerReleased.countDown();
+        AsyncLoggerFactory factory = new AsyncLoggerFactory(4, OverflowPolicy.DROP, output, output);
+        CSSFXLogger.setLoggerFactory(factory);
+
+        // the factory in use is kept
+        CSSFXLogger.async();
+        CSSFXLogger.logger("test").info("kept");
+        CSSFXLogger.noop();
+        factory.getLogger("test").info("replaced");
+
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).endsWith("kept"), lines.get(0));
+        assertEquals(1, factory.getDroppedCount());
+    }
+}
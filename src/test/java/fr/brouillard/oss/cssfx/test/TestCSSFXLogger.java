@@ -0,0 +1,124 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.LogLevel;
+import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static fr.brouillard.oss.cssfx.impl.log.CSSFXLogger.logger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TestCSSFXLogger {
+    private static final int CALLS = 10_000;
+
+    @AfterEach
+    public void resetLogger() {
+        CSSFXLogger.setLogLevel(LogLevel.INFO);
+        CSSFXLogger.noop();
+    }
+
+    @Test
+    public void loggersAreCachedUntilTheFactoryChanges() {
+        AtomicInteger created = new AtomicInteger();
+        CSSFXLogger.setLoggerFactory(name -> {
+            created.incrementAndGet();
+            return (level, message, args) -> {};
+        });
+
+        Logger first = logger(TestCSSFXLogger.class);
+        assertSame(first, logger(TestCSSFXLogger.class));
+        assertSame(logger("cssfx"), logger("cssfx"));
+        assertEquals(2, created.get());
+
+        CSSFXLogger.setLoggerFactory(name -> (level, message, args) -> {});
+        assertTrue(first != logger(TestCSSFXLogger.class));
+    }
+
+    @Test
+    public void disabledLevelsAreNotLogged() {
+        List<String> messages = new ArrayList<>();
+        CSSFXLogger.setLoggerFactory(name -> new Logger() {
+            @Override
+            public boolean isEnabled(LogLevel level) {
+                return level.ordinal() <= LogLevel.INFO.ordinal();
+            }
+
+            @Override
+            public void log(LogLevel level, String message, Object... args) {
+                messages.add(String.format(message, args));
+            }
+        });
+
+        Logger logger = logger(TestCSSFXLogger.class);
+        logger.debug("hidden %s", "value");
+        logger.debug(() -> "hidden");
+        logger.info("shown %s %s", "a", "b");
+        logger.info(() -> "100%");
+
+        assertEquals(List.of("shown a b", "100%"), messages);
+    }
+
+    @Test
+    public void disabledLevelsDoNotAllocate() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        for (Runnable setup : new Runnable[] {CSSFXLogger::noop, CSSFXLogger::console, CSSFXLogger::jul}) {
+            setup.run();
+            // warm up the caches
+            logDisabledMessages();
+
+            long threadId = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            logDisabledMessages();
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            // a single allocation per call would already cost more than 100KB
+            assertTrue(allocated < 1024, "disabled log calls allocated " + allocated + " bytes");
+        }
+        assertFalse(logger(TestCSSFXLogger.class).isEnabled(LogLevel.DEBUG));
+    }
+
+    private static void logDisabledMessages() {
+        String file = "app.css";
+        Object directory = TestCSSFXLogger.class;
+        for (int i = 0; i < CALLS; i++) {
+            logger(TestCSSFXLogger.class).debug("file %s was modified", file);
+            logger(TestCSSFXLogger.class).debug("file %s was modified in %s", file, directory);
+            logger(TestCSSFXLogger.class).debug("no argument");
+            logger("cssfx").debug(() -> "computed message");
+        }
+    }
+}
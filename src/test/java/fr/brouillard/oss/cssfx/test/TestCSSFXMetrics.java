@@ -0,0 +1,121 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.impl.metrics.CSSFXMetrics;
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCSSFXMetrics {
+    @Test
+    public void watcherRegistrationsAreCounted(@TempDir Path directory) throws Exception {
+        PathsWatcher watcher = new PathsWatcher();
+        try {
+            CSSFXMetrics metrics = new CSSFXMetrics(watcher);
+            Path first = Files.createFile(directory.resolve("first.css"));
+            Path second = Files.createFile(directory.resolve("second.css"));
+            Runnable action = () -> {};
+
+            watcher.monitor(directory, first, action);
+            watcher.monitor(directory, first, () -> {});
+            watcher.monitor(directory, second, action);
+            watcher.monitorDirectory(directory, p -> {});
+            assertEquals(1, metrics.getWatchedDirectories());
+            assertEquals(2, metrics.getWatchedFiles());
+            assertEquals(4, metrics.getRegisteredActions());
+
+            watcher.unregister(directory, second, action);
+            assertEquals(1, metrics.getWatchedFiles());
+            assertEquals(3, metrics.getRegisteredActions());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    public void reloadsAndLatenciesAreRecorded() {
+        PathsWatcher watcher = new PathsWatcher();
+        try {
+            CSSFXMetrics metrics = new CSSFXMetrics(watcher);
+            Path file = Path.of("/project/src/main/resources/app.css");
+
+            metrics.fileChanged(file);
+            metrics.fileChanged(file);
+            metrics.reloadApplied(TimeUnit.MILLISECONDS.toNanos(30));
+            metrics.reloadApplied(TimeUnit.MILLISECONDS.toNanos(10));
+
+            assertEquals(2, metrics.getReloads());
+            assertEquals(Map.of(file.toString(), 2L), metrics.getReloadsPerFile());
+            assertEquals(2, metrics.getReloadLatencyCount());
+            assertEquals(30, metrics.getReloadLatencyMaxMillis());
+            assertEquals(20.0, metrics.getReloadLatencyMeanMillis(), 0.001);
+            assertEquals(1L, metrics.getReloadLatencyHistogram().get("<=16ms"));
+            assertEquals(1L, metrics.getReloadLatencyHistogram().get("<=32ms"));
+
+            metrics.resetCounters();
+            assertEquals(0, metrics.getReloads());
+            assertTrue(metrics.getReloadsPerFile().isEmpty());
+            assertEquals(0, metrics.getReloadLatencyCount());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    public void metricsAreExposedThroughJMX() throws Exception {
+        PathsWatcher watcher = new PathsWatcher();
+        CSSFXMetrics metrics = new CSSFXMetrics(watcher);
+        metrics.register();
+        try {
+            ObjectName name = metrics.getObjectName();
+            assertNotNull(name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            metrics.fileChanged(Path.of("/project/app.css"));
+
+            assertEquals(1L, server.getAttribute(name, "Reloads"));
+            assertEquals(1, ((TabularData) server.getAttribute(name, "ReloadsPerFile")).size());
+            server.invoke(name, "resetCounters", null, null);
+            assertEquals(0L, server.getAttribute(name, "Reloads"));
+
+            metrics.unregister();
+            assertFalse(server.isRegistered(name));
+        } finally {
+            metrics.unregister();
+            watcher.stop();
+        }
+    }
+}
@@ -24,19 +24,36 @@ import de.sandec.jmemorybuddy.JMemoryBuddy;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.scene.Node;
+import javafx.scene.layout.StackPane;
 import fr.brouillard.oss.cssfx.api.URIToPathConverter;
 import fr.brouillard.oss.cssfx.impl.CSSFXMonitor;
 import fr.brouillard.oss.cssfx.impl.URIToPathConverters;
+import fr.brouillard.oss.cssfx.impl.events.CSSFXEvent;
+import fr.brouillard.oss.cssfx.impl.events.CSSFXEvent.EventType;
+import fr.brouillard.oss.cssfx.impl.events.SourceReload;
 import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger;
 import fr.brouillard.oss.cssfx.impl.monitoring.CleanupDetector;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestCSSFXMonitor {
 
@@ -131,13 +148,121 @@ public class TestCSSFXMonitor {
         if(!latch2.await(1, TimeUnit.SECONDS)) {
             throw new Exception("Test Failed!");
         }
-        // We have to wait another time, because we have to wait for another scheduled runLater.
-        CountDownLatch latch3 = new CountDownLatch(1);
-        Platform.runLater(() -> latch3.countDown());
-        latch3.await(1, TimeUnit.SECONDS);
+        // the sources are resolved in background, then swapped in a later runLater
+        long end = System.currentTimeMillis() + 5000;
+        while (!list.get(0).equals(list.get(1)) && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
         if(!list.get(0).equals(list.get(1))) {
             throw new RuntimeException("ClassPath wasn't properly converted to URI");
         }
     }
 
+    @Test
+    public void testStopWithoutStartOrTwice() {
+        CSSFXMonitor notStarted = new CSSFXMonitor();
+        notStarted.stop();
+        notStarted.stop();
+    }
+
+    @Test
+    public void testLazyMonitoringReloadsReferencingLists() throws Exception {
+        String uri = getClass().getResource("bottom.css").toExternalForm();
+        Path source = Paths.get("src/test/resources/fr/brouillard/oss/cssfx/test/bottom.css").toAbsolutePath().normalize();
+        StackPane root = new StackPane();
+        StackPane child = new StackPane();
+        StackPane other = new StackPane();
+        root.getChildren().addAll(child, other);
+        root.getStylesheets().add(uri);
+        child.getStylesheets().add(uri);
+        other.getStylesheets().add("other.css");
+
+        CSSFXMonitor monitor = new CSSFXMonitor();
+        monitor.addAllConverters(converters);
+        monitor.setNodes(FXCollections.<Node>observableArrayList(root));
+        monitor.setLazyMonitoring(true);
+
+        AtomicInteger reloaded = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            monitor.start();
+            // nothing is swapped while sources do not change
+            assertEquals(uri, root.getStylesheets().get(0));
+            reloaded.set(monitor.reload(source));
+            started.countDown();
+        });
+        try {
+            if (!started.await(5, TimeUnit.SECONDS)) {
+                throw new Exception("Test Failed!");
+            }
+            // the batch of swaps was queued by the reload, before this task
+            CountDownLatch applied = new CountDownLatch(1);
+            Platform.runLater(applied::countDown);
+            assertTrue(applied.await(5, TimeUnit.SECONDS));
+
+            assertEquals(2, reloaded.get());
+            assertEquals(source.toUri().toString(), root.getStylesheets().get(0));
+            assertEquals(source.toUri().toString(), child.getStylesheets().get(0));
+            assertEquals("other.css", other.getStylesheets().get(0));
+        } finally {
+            monitor.stop();
+        }
+    }
+
+    @Test
+    public void testReloadLifecycleEvents(@TempDir Path directory) throws Exception {
+        Path source = Files.write(directory.toRealPath().resolve("app.css"), ".root {}".getBytes(StandardCharsets.UTF_8));
+        StackPane root = new StackPane();
+        root.getStylesheets().add("app.css");
+
+        CSSFXMonitor monitor = new CSSFXMonitor();
+        monitor.addConverter(uri -> "app.css".equals(uri) ? source : null);
+        monitor.setNodes(FXCollections.<Node>observableArrayList(root));
+
+        List<CSSFXEvent<?>> events = new CopyOnWriteArrayList<>();
+        CountDownLatch reloaded = new CountDownLatch(1);
+        monitor.addEventListener(e -> {
+            if (e.getEventData() instanceof SourceReload) {
+                events.add(e);
+                if (e.getEventType() == EventType.STYLESHEET_RELOADED) {
+                    reloaded.countDown();
+                }
+            }
+        });
+
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            monitor.start();
+            started.countDown();
+        });
+        try {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            // let the registration swap be applied
+            long end = System.currentTimeMillis() + 5000;
+            while (!root.getStylesheets().get(0).equals(source.toUri().toString()) && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+            assertTrue(events.isEmpty(), "registration is not a reload: " + events);
+
+            Files.write(source, ".root { -fx-background-color: red; }".getBytes(StandardCharsets.UTF_8));
+            assertTrue(reloaded.await(5, TimeUnit.SECONDS));
+
+            assertEquals(Arrays.asList(EventType.FILE_CHANGED, EventType.RELOAD_SCHEDULED, EventType.STYLESHEET_RELOADED),
+                    events.stream().map(CSSFXEvent::getEventType).collect(Collectors.toList()));
+            long fileEvent = ((SourceReload) events.get(0).getEventData()).getFileEventTimestamp();
+            long previous = fileEvent;
+            for (CSSFXEvent<?> event : events) {
+                SourceReload reload = (SourceReload) event.getEventData();
+                assertEquals(source, reload.getSourceFile());
+                assertEquals(fileEvent, reload.getFileEventTimestamp());
+                assertTrue(event.getTimestamp() >= previous);
+                previous = event.getTimestamp();
+            }
+            assertEquals(1, ((SourceReload) events.get(1).getEventData()).getStylesheetsLists());
+            assertEquals(1, ((SourceReload) events.get(2).getEventData()).getStylesheetsLists());
+            assertEquals(1, monitor.getMetrics().getReloadLatencyCount());
+        } finally {
+            monitor.stop();
+        }
+    }
 }
@@ -26,7 +26,13 @@ import fr.brouillard.oss.cssfx.impl.monitoring.CleanupDetector;
 import org.junit.jupiter.api.Test;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestCleanupDetector {
 
@@ -42,4 +48,61 @@ public class TestCleanupDetector {
         });
         latch.await(1, TimeUnit.SECONDS);
     }
+
+    @Test
+    public void collectedObjectsAreDispatchedInBatches() throws Exception {
+        int count = 100;
+        CountDownLatch cleaned = new CountDownLatch(count);
+        AtomicInteger dispatches = new AtomicInteger();
+        Executor dispatcher = task -> {
+            dispatches.incrementAndGet();
+            task.run();
+        };
+
+        AtomicInteger pending = new AtomicInteger();
+        registerGarbage(count, cleaned, dispatcher, pending);
+        assertEquals(count, pending.get());
+        for (int i = 0; i < 50 && cleaned.getCount() > 0; i++) {
+            System.gc();
+            cleaned.await(100, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(cleaned.await(1, TimeUnit.SECONDS));
+        assertTrue(dispatches.get() < count, "expected grouped dispatches, got " + dispatches.get());
+        assertEquals(0, pending.get());
+    }
+
+    @Test
+    public void configuredThreadsDetectAndDrainTheCollections() throws Exception {
+        CountDownLatch cleaned = new CountDownLatch(1);
+        AtomicInteger createdThreads = new AtomicInteger();
+        AtomicInteger drains = new AtomicInteger();
+        ThreadFactory threadFactory = task -> {
+            createdThreads.incrementAndGet();
+            Thread t = new Thread(task, "test-cleaner");
+            t.setDaemon(true);
+            return t;
+        };
+        Executor executor = task -> {
+            drains.incrementAndGet();
+            task.run();
+        };
+        CleanupDetector detector = new CleanupDetector(executor, threadFactory);
+
+        detector.register(new Object(), cleaned::countDown, null, null);
+        for (int i = 0; i < 50 && cleaned.getCount() > 0; i++) {
+            System.gc();
+            cleaned.await(100, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(cleaned.await(1, TimeUnit.SECONDS));
+        assertEquals(1, createdThreads.get());
+        assertEquals(1, drains.get());
+    }
+
+    private static void registerGarbage(int count, CountDownLatch cleaned, Executor dispatcher, AtomicInteger pending) {
+        for (int i = 0; i < count; i++) {
+            CleanupDetector.onCleanup(new Object(), cleaned::countDown, dispatcher, pending);
+        }
+    }
 }
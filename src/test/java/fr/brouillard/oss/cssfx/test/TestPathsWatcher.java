@@ -24,12 +24,38 @@ import de.sandec.jmemorybuddy.JMemoryBuddy;
 import fr.brouillard.oss.cssfx.CSSFX;
 import fr.brouillard.oss.cssfx.impl.log.CSSFXLogger;
 import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher.WatchMode;
+import fr.brouillard.oss.cssfx.impl.monitoring.WatchHub;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestPathsWatcher {
 
@@ -49,20 +75,453 @@ public class TestPathsWatcher {
         Path directory = new File(".").toPath();
         Path file = new File("./pom.xml").toPath();
 
-        JMemoryBuddy.memoryTest(checker -> {
-            Runnable r = new EmptyRunnable();
-            watcher.monitor(directory,file,r);
-            checker.assertNotCollectable(r);
-            r = null;
-        });
-
-        JMemoryBuddy.memoryTest(checker -> {
-            Runnable r = new EmptyRunnable();
-            watcher.monitor(directory,file,r);
-            watcher.unregister(directory, file,r);
-            checker.assertCollectable(r);
-            r = null;
-        });
+        try {
+            JMemoryBuddy.memoryTest(checker -> {
+                Runnable r = new EmptyRunnable();
+                watcher.monitor(directory,file,r);
+                checker.assertNotCollectable(r);
+                r = null;
+            });
+
+            JMemoryBuddy.memoryTest(checker -> {
+                Runnable r = new EmptyRunnable();
+                watcher.monitor(directory,file,r);
+                watcher.unregister(directory, file,r);
+                checker.assertCollectable(r);
+                r = null;
+            });
+        } finally {
+            // releases the hub of the default mode, shared with the other tests
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void eachSaveRunsActionsOnce(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(300), Duration.ofSeconds(5));
+        AtomicInteger runs = new AtomicInteger();
+        watcher.monitor(css.getParent(), css, runs::incrementAndGet);
+        watcher.watch();
+
+        try {
+            // an editor save usually is a truncate followed by one or more writes
+            save(css, ".root { -fx-background-color: red; }");
+            waitForRuns(runs, 1);
+            Thread.sleep(600);
+            assertEquals(1, runs.get());
+
+            save(css, ".root { -fx-background-color: blue; }");
+            waitForRuns(runs, 2);
+            Thread.sleep(600);
+            assertEquals(2, runs.get());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void continuousEventsAreFiredAfterMaxLatency(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(400), Duration.ofMillis(800));
+        AtomicInteger runs = new AtomicInteger();
+        watcher.monitor(css.getParent(), css, runs::incrementAndGet);
+        watcher.watch();
+
+        try {
+            long end = System.nanoTime() + Duration.ofSeconds(3).toNanos();
+            int i = 0;
+            while (System.nanoTime() - end < 0) {
+                Files.writeString(css, ".root { -fx-opacity: " + (i++ % 10) / 10.0 + "; }");
+                Thread.sleep(100);
+            }
+            assertTrue(runs.get() >= 2, "actions must be fired while events continue, got " + runs.get());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void creationListenersAreNotifiedOfNewFiles(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        PathsWatcher watcher = new PathsWatcher();
+        CopyOnWriteArrayList<Path> created = new CopyOnWriteArrayList<>();
+        watcher.addCreationListener(created::add);
+        watcher.monitor(css.getParent(), css, new EmptyRunnable());
+        watcher.watch();
+
+        try {
+            Path other = Files.writeString(directory.resolve("other.css"), ".root {}").toAbsolutePath().normalize();
+            long end = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (created.isEmpty() && System.nanoTime() - end < 0) {
+                Thread.sleep(20);
+            }
+            assertTrue(created.contains(other));
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void pollingDetectsModifiedFiles(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.POLLING);
+        AtomicInteger runs = new AtomicInteger();
+        watcher.monitor(css.getParent(), css, runs::incrementAndGet);
+        watcher.watch();
+
+        try {
+            assertTrue(watcher.isPolling());
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitForRuns(runs, 1);
+
+            Files.delete(css);
+            waitForRuns(runs, 2);
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void pollingDetectsFilesOfMonitoredDirectories(@TempDir Path directory) throws Exception {
+        Path dir = directory.toAbsolutePath().normalize();
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.POLLING);
+        CopyOnWriteArrayList<Path> created = new CopyOnWriteArrayList<>();
+        CopyOnWriteArrayList<Path> changed = new CopyOnWriteArrayList<>();
+        watcher.addCreationListener(created::add);
+        watcher.monitorDirectory(dir, changed::add);
+        watcher.watch();
+
+        try {
+            Path css = Files.writeString(dir.resolve("app.css"), ".root {}");
+            waitFor(() -> created.contains(css) && changed.contains(css));
+
+            changed.clear();
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitFor(() -> changed.contains(css));
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void autoModeKeepsNativeEventsWhenDelivered(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.AUTO);
+        AtomicInteger runs = new AtomicInteger();
+        watcher.monitor(css.getParent(), css, runs::incrementAndGet);
+        watcher.watch();
+
+        try {
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitForRuns(runs, 1);
+            // leaves time to the polling to detect the change & wait for its native event
+            Thread.sleep(PathsWatcher.NATIVE_EVENT_GRACE_PERIOD.toMillis() + 500);
+            assertFalse(watcher.isPolling());
+            assertEquals(1, runs.get());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void identicalContentDoesNotRunActions(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500));
+        AtomicInteger runs = new AtomicInteger();
+        watcher.monitor(css.getParent(), css, runs::incrementAndGet);
+        watcher.watch();
+
+        try {
+            // no content known before the first modification
+            Files.writeString(css, ".root {}");
+            waitForRuns(runs, 1);
+
+            Files.writeString(css, ".root {}");
+            waitFor(() -> watcher.getSkippedDispatchesCount() == 1);
+            assertEquals(1, runs.get());
+
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitForRuns(runs, 2);
+
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitFor(() -> watcher.getSkippedDispatchesCount() == 2);
+            assertEquals(2, runs.get());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void rejectedModificationsDoNotRunActions(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500));
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger dispatches = new AtomicInteger();
+        watcher.monitor(css.getParent(), css, runs::incrementAndGet);
+        watcher.addDispatchListener((file, firstEvent) -> dispatches.incrementAndGet());
+        watcher.addDispatchFilter(file -> !file.equals(css) || !readContent(file).contains("broken"));
+        watcher.watch();
+
+        try {
+            Files.writeString(css, ".root { broken }");
+            waitFor(() -> watcher.getRejectedDispatchesCount() == 1);
+            assertEquals(0, runs.get());
+            assertEquals(0, dispatches.get());
+
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitForRuns(runs, 1);
+            assertEquals(1, dispatches.get());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void rejectedContentSavedAgainIsApplied(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500));
+        AtomicInteger runs = new AtomicInteger();
+        AtomicBoolean rejecting = new AtomicBoolean(true);
+        watcher.monitor(css.getParent(), css, runs::incrementAndGet);
+        // rejects the first modification, like a validation failing on a file being written
+        watcher.addDispatchFilter(file -> !rejecting.getAndSet(false));
+        watcher.watch();
+
+        try {
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitFor(() -> watcher.getRejectedDispatchesCount() == 1);
+            assertEquals(0, runs.get());
+
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitForRuns(runs, 1);
+            assertEquals(0, watcher.getSkippedDispatchesCount());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void treesFailingToRegisterAreForgotten(@TempDir Path directory) throws Exception {
+        Path root = directory.toAbsolutePath().normalize().resolve("missing");
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.NATIVE);
+        AtomicInteger runs = new AtomicInteger();
+        try {
+            assertThrows(ExecutionException.class, () -> watcher.watchTree(root).get(10, TimeUnit.SECONDS));
+            assertEquals(0, watcher.getWatchedTreesCount());
+
+            // the directories of the failed tree are registered on their own
+            Path css = Files.writeString(Files.createDirectories(root).resolve("app.css"), ".root {}");
+            watcher.monitor(root, css, runs::incrementAndGet);
+            watcher.watch();
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitForRuns(runs, 1);
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void treesAreReleasedByTheirLastWatcher(@TempDir Path directory) throws Exception {
+        Path root = directory.toAbsolutePath().normalize();
+        PathsWatcher first = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.NATIVE);
+        PathsWatcher second = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.NATIVE);
+        PathsWatcher other = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.NATIVE);
+        try {
+            first.watchTree(root).get(10, TimeUnit.SECONDS);
+            second.watchTree(root).get(10, TimeUnit.SECONDS);
+            assertEquals(1, other.getWatchedTreesCount());
+
+            first.stop();
+            assertEquals(1, other.getWatchedTreesCount());
+            second.stop();
+            assertEquals(0, other.getWatchedTreesCount());
+        } finally {
+            first.stop();
+            second.stop();
+            other.stop();
+        }
+    }
+
+    @Test
+    void filesOfWatchedTreesAreMonitored(@TempDir Path directory) throws Exception {
+        Path root = directory.toAbsolutePath().normalize();
+        Path css = Files.writeString(Files.createDirectories(root.resolve("a/b")).resolve("app.css"), ".root {}");
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.NATIVE);
+        AtomicInteger runs = new AtomicInteger();
+        watcher.watchTree(root).get(10, TimeUnit.SECONDS);
+        assertSame(watcher.watchTree(root), watcher.watchTree(root));
+        watcher.monitor(css.getParent(), css, runs::incrementAndGet);
+        watcher.watch();
+
+        try {
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitForRuns(runs, 1);
+
+            // directories created later are watched too
+            Path created = Files.createDirectories(root.resolve("a/c"));
+            Thread.sleep(500);
+            Path other = Files.writeString(created.resolve("other.css"), ".root {}");
+            AtomicInteger otherRuns = new AtomicInteger();
+            watcher.monitor(created, other, otherRuns::incrementAndGet);
+            Files.writeString(other, ".root { -fx-background-color: blue; }");
+            waitForRuns(otherRuns, 1);
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void concurrentRegistrationsDoNotBreakDispatch(@TempDir Path directory) throws Exception {
+        Path dir = directory.toAbsolutePath().normalize();
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            files.add(Files.writeString(dir.resolve("style" + i + ".css"), ".root {}"));
+        }
+        PathsWatcher watcher = new PathsWatcher(Duration.ZERO, Duration.ZERO, WatchMode.NATIVE);
+        watcher.watch();
+        int threads = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger dispatched = new AtomicInteger();
+
+        try {
+            // modifications are dispatched while the registrations change
+            Future<?> writer = pool.submit(() -> {
+                int i = 0;
+                while (writing.get()) {
+                    Files.writeString(files.get(i % files.size()), ".root { -fx-opacity: " + (i++ % 10) / 10.0 + "; }");
+                }
+                return null;
+            });
+            List<Future<?>> registrations = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Random random = new Random(t);
+                registrations.add(pool.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        Path file = files.get(random.nextInt(files.size()));
+                        Runnable action = dispatched::incrementAndGet;
+                        Consumer<Path> directoryAction = p -> dispatched.incrementAndGet();
+                        watcher.monitor(dir, file, action);
+                        watcher.monitorDirectory(dir, directoryAction);
+                        Thread.yield();
+                        watcher.unregister(dir, file, action);
+                        watcher.unregisterDirectory(dir, directoryAction);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> registration : registrations) {
+                registration.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            writer.get(10, TimeUnit.SECONDS);
+
+            assertEquals(0, watcher.getRegisteredActionsCount());
+            assertEquals(0, watcher.getWatchedFilesCount());
+            assertEquals(0, watcher.getWatchedDirectoriesCount());
+
+            // the watcher thread survived the churn
+            AtomicInteger runs = new AtomicInteger();
+            watcher.monitor(dir, files.get(0), runs::incrementAndGet);
+            Files.writeString(files.get(0), ".root { -fx-background-color: red; }");
+            waitFor(() -> runs.get() >= 1);
+        } finally {
+            writing.set(false);
+            pool.shutdownNow();
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void watchingRunsOnTheGivenExecutor(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        CopyOnWriteArrayList<String> threads = new CopyOnWriteArrayList<>();
+        PathsWatcher watcher = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.NATIVE);
+        watcher.setExecutor(pool);
+        watcher.monitor(css.getParent(), css, () -> threads.add(Thread.currentThread().getName()));
+        watcher.watch();
+
+        try {
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitFor(() -> !threads.isEmpty());
+            assertEquals("CSSFX-file-monitor", threads.get(0));
+        } finally {
+            watcher.stop();
+        }
+        // the thread is given back to the executor once stopped
+        assertTrue(pool.submit(() -> Thread.currentThread().getName()).get(10, TimeUnit.SECONDS).startsWith("pool-"));
+        pool.shutdown();
+    }
+
+    @Test
+    void watchersShareTheirHub(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        // not the default mode, whose hub may be used by the watchers of the other tests
+        PathsWatcher first = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.AUTO);
+        PathsWatcher second = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.AUTO);
+        WatchHub hub = first.getHub();
+        AtomicInteger firstRuns = new AtomicInteger();
+        AtomicInteger secondRuns = new AtomicInteger();
+
+        try {
+            assertSame(hub, second.getHub());
+            first.monitor(css.getParent(), css, firstRuns::incrementAndGet);
+            second.monitor(css.getParent(), css, secondRuns::incrementAndGet);
+            first.watch();
+            second.watch();
+            assertEquals(1, hub.getWatchedDirectoriesCount());
+            assertEquals(2, hub.getSubscribersCount());
+
+            Files.writeString(css, ".root { -fx-background-color: red; }");
+            waitForRuns(firstRuns, 1);
+            waitForRuns(secondRuns, 1);
+
+            first.stop();
+            assertEquals(1, hub.getWatchedDirectoriesCount());
+            Files.writeString(css, ".root { -fx-background-color: blue; }");
+            waitForRuns(secondRuns, 2);
+            assertEquals(1, firstRuns.get());
+        } finally {
+            first.stop();
+            second.stop();
+        }
+        assertTrue(hub.isClosed());
+        assertEquals(0, hub.getWatchedDirectoriesCount());
+        PathsWatcher next = new PathsWatcher(Duration.ofMillis(50), Duration.ofMillis(500), WatchMode.AUTO);
+        assertNotSame(hub, next.getHub());
+        next.stop();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long end = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() - end < 0) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static String readContent(Path file) {
+        try {
+            return Files.readString(file);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static void save(Path file, String content) throws Exception {
+        Files.writeString(file, "");
+        Files.writeString(file, content.substring(0, content.length() / 2));
+        Files.writeString(file, content);
+    }
+
+    private static void waitForRuns(AtomicInteger runs, int expected) throws InterruptedException {
+        long end = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (runs.get() < expected && System.nanoTime() - end < 0) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, runs.get());
     }
 
     public static class EmptyRunnable implements Runnable{
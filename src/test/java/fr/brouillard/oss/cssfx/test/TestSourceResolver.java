@@ -0,0 +1,121 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.api.URIToPathConverter;
+import fr.brouillard.oss.cssfx.impl.CSSFXMonitor.URIRegistrar;
+import fr.brouillard.oss.cssfx.impl.SourceResolver;
+import fr.brouillard.oss.cssfx.impl.StyleSheetRegistry;
+import fr.brouillard.oss.cssfx.impl.StyleSheetSwapBatcher;
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSourceResolver {
+    private final StyleSheetSwapBatcher batcher = new StyleSheetSwapBatcher(Runnable::run);
+    private final PathsWatcher watcher = new PathsWatcher();
+    private final List<Runnable> triggers = new ArrayList<>();
+
+    @AfterEach
+    public void stopWatcher() {
+        watcher.stop();
+    }
+
+    @Test
+    public void lookupsOfABatchAreSharedAndSwappedOffTheCallingThread(@TempDir Path directory) throws Exception {
+        Path source = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        AtomicInteger conversions = new AtomicInteger();
+        URIToPathConverter converter = uri -> {
+            conversions.incrementAndGet();
+            return "batched.css".equals(uri) ? source : null;
+        };
+        SourceResolver resolver = new SourceResolver(triggers::add, Runnable::run);
+        URIRegistrar registrar = newRegistrar(converter, resolver);
+        ObservableList<String> first = FXCollections.observableArrayList("batched.css");
+        ObservableList<String> second = FXCollections.observableArrayList("batched.css");
+
+        registrar.register("batched.css", first);
+        registrar.register("batched.css", second);
+
+        // nothing is resolved before the batch is processed
+        assertEquals(0, conversions.get());
+        assertEquals(1, triggers.size());
+        triggers.remove(0).run();
+
+        assertEquals(1, conversions.get());
+        assertEquals(1, resolver.getBatchesCount());
+        assertEquals(1, resolver.getLookupsCount());
+        assertEquals(source.toUri().toString(), first.get(0));
+        assertEquals(source.toUri().toString(), second.get(0));
+    }
+
+    @Test
+    public void asynchronousConvertersCompleteTheRegistrationLater(@TempDir Path directory) throws Exception {
+        Path source = Files.writeString(directory.resolve("slow.css"), ".root {}").toAbsolutePath().normalize();
+        CompletableFuture<Path> lookup = new CompletableFuture<>();
+        URIToPathConverter converter = new URIToPathConverter() {
+            @Override
+            public Path convert(String uri) {
+                throw new AssertionError("the synchronous conversion must not be used");
+            }
+
+            @Override
+            public CompletableFuture<Path> convertAsync(String uri, Executor executor) {
+                return lookup;
+            }
+        };
+        SourceResolver resolver = new SourceResolver(triggers::add, Runnable::run);
+        ObservableList<String> stylesheets = FXCollections.observableArrayList("slow.css");
+
+        newRegistrar(converter, resolver).register("slow.css", stylesheets);
+        triggers.remove(0).run();
+        assertEquals("slow.css", stylesheets.get(0));
+
+        CompletableFuture<Void> idle = resolver.whenIdle();
+        assertFalse(idle.isDone());
+
+        lookup.complete(source);
+        assertEquals(source.toUri().toString(), stylesheets.get(0));
+        assertTrue(idle.isDone());
+    }
+
+    private URIRegistrar newRegistrar(URIToPathConverter converter, SourceResolver resolver) {
+        URIRegistrar registrar = new URIRegistrar(Collections.singletonList(converter), watcher, new StyleSheetRegistry(batcher), batcher);
+        registrar.setSourceResolver(resolver);
+        return registrar;
+    }
+}
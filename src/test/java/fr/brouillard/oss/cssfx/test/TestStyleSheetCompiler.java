@@ -0,0 +1,95 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.impl.StyleSheetCompiler;
+import javafx.css.CssParser;
+import javafx.css.Declaration;
+import javafx.css.Stylesheet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class TestStyleSheetCompiler {
+    private static final Path SOURCE = Paths.get("app.css");
+
+    @Test
+    public void compiledContentHasTheRulesOfTheText(@TempDir Path directory) throws Exception {
+        String css = ".root { -fx-background-color: red; }\n.label { -fx-text-fill: blue; }\n.button:hover { -fx-padding: 2 4; }";
+        StyleSheetCompiler compiler = new StyleSheetCompiler();
+
+        byte[] compiled = compiler.compile(SOURCE, css.getBytes(StandardCharsets.UTF_8));
+
+        assertNotNull(compiled);
+        Path bss = Files.write(directory.resolve("app.bss"), compiled);
+        Stylesheet loaded = Stylesheet.loadBinary(bss.toUri().toURL());
+        Stylesheet parsed = new CssParser().parse(SOURCE.toUri().toString(), css);
+        assertEquals(parsed.getRules().size(), loaded.getRules().size());
+        for (int i = 0; i < parsed.getRules().size(); i++) {
+            assertEquals(parsed.getRules().get(i).getSelectors(), loaded.getRules().get(i).getSelectors());
+            assertEquals(parsed.getRules().get(i).getDeclarations().size(), loaded.getRules().get(i).getDeclarations().size());
+        }
+    }
+
+    @Test
+    public void contentsImportingOtherStylesheetsAreNotCompiled() {
+        StyleSheetCompiler compiler = new StyleSheetCompiler();
+
+        assertNull(compiler.compile(SOURCE, "@import \"other.css\";\n.root {}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0, compiler.cachedCount());
+    }
+
+    @Test
+    public void relativeURLsAreResolvedAgainstTheSourceFile(@TempDir Path directory) throws Exception {
+        Path source = directory.resolve("theme").resolve("app.css");
+        StyleSheetCompiler compiler = new StyleSheetCompiler();
+
+        byte[] compiled = compiler.compile(source, ".root { -fx-background-image: url('images/background.png'); }".getBytes(StandardCharsets.UTF_8));
+
+        assertNotNull(compiled);
+        Path bss = Files.write(directory.resolve("app.bss"), compiled);
+        Declaration image = Stylesheet.loadBinary(bss.toUri().toURL()).getRules().get(0).getDeclarations().get(0);
+        Object[] urls = (Object[]) image.getParsedValue().convert(null);
+        assertEquals(source.resolveSibling("images/background.png"), Paths.get(URI.create(urls[0].toString())));
+    }
+
+    @Test
+    public void identicalContentsAreCompiledOnce() {
+        StyleSheetCompiler compiler = new StyleSheetCompiler(1);
+
+        byte[] first = compiler.compile(SOURCE, ".root { -fx-padding: 1; }".getBytes(StandardCharsets.UTF_8));
+        byte[] again = compiler.compile(SOURCE, ".root { -fx-padding: 1; }".getBytes(StandardCharsets.UTF_8));
+        compiler.compile(SOURCE, ".root { -fx-padding: 2; }".getBytes(StandardCharsets.UTF_8));
+
+        assertSame(first, again);
+        assertEquals(1, compiler.cachedCount());
+    }
+}
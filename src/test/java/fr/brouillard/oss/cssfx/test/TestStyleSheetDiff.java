@@ -0,0 +1,83 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.impl.StyleSheetDiff;
+import fr.brouillard.oss.cssfx.impl.StyleSheetDiff.Strategy;
+import javafx.css.CssParser;
+import javafx.css.Stylesheet;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestStyleSheetDiff {
+    private static final Path SOURCE = Paths.get("app.css");
+
+    @Test
+    public void formattingChangesAreNotSwapped() {
+        Stylesheet before = parse(".root { -fx-background-color: red; }\n.label { -fx-text-fill: blue; }");
+        Stylesheet after = parse("/* colors */\n.root {\n    -fx-background-color: red;\n}\n\n.label { -fx-text-fill: blue }");
+
+        StyleSheetDiff diff = StyleSheetDiff.between(SOURCE, before, after);
+
+        assertTrue(diff.isEmpty());
+        assertEquals(Strategy.NO_SWAP, diff.getStrategy());
+    }
+
+    @Test
+    public void changedRulesAreReported() {
+        Stylesheet before = parse(".root { -fx-background-color: red; }\n.label { -fx-text-fill: blue; }\n.button { -fx-padding: 2; }");
+        Stylesheet after = parse(".root { -fx-background-color: red; }\n.label { -fx-text-fill: green; }\n.button { -fx-padding: 2; }");
+
+        StyleSheetDiff diff = StyleSheetDiff.between(SOURCE, before, after);
+
+        assertEquals(Strategy.FULL_SWAP, diff.getStrategy());
+        assertEquals(1, diff.getRemovedRules());
+        assertEquals(1, diff.getAddedRules());
+        assertEquals(Set.of("*.label"), diff.getChangedSelectors());
+    }
+
+    @Test
+    public void reorderedRulesAreChanges() {
+        Stylesheet before = parse(".a { -fx-padding: 1; }\n.b { -fx-padding: 2; }");
+        Stylesheet after = parse(".b { -fx-padding: 2; }\n.a { -fx-padding: 1; }");
+
+        assertFalse(StyleSheetDiff.between(SOURCE, before, after).isEmpty());
+    }
+
+    @Test
+    public void unknownPreviousVersionIsFullySwapped() {
+        StyleSheetDiff diff = StyleSheetDiff.between(SOURCE, null, parse(".root {}"));
+
+        assertFalse(diff.hasBaseline());
+        assertEquals(Strategy.FULL_SWAP, diff.getStrategy());
+    }
+
+    private static Stylesheet parse(String css) {
+        return new CssParser().parse(css);
+    }
+}
@@ -0,0 +1,203 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import de.sandec.jmemorybuddy.JMemoryBuddy;
+import fr.brouillard.oss.cssfx.impl.StyleSheetRegistry;
+import fr.brouillard.oss.cssfx.impl.StyleSheetStore;
+import fr.brouillard.oss.cssfx.impl.StyleSheetSwapBatcher;
+import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestStyleSheetRegistry {
+
+    @Test
+    public void sourceIsMonitoredOnceWhateverTheNumberOfLists() {
+        List<Runnable> fxTasks = new ArrayList<>();
+        StyleSheetRegistry registry = new StyleSheetRegistry(new StyleSheetSwapBatcher(fxTasks::add));
+        CountingPathsWatcher watcher = new CountingPathsWatcher();
+        Path source = Paths.get("src", "test", "resources", "controls.css");
+
+        List<ObservableList<String>> lists = new ArrayList<>();
+        String sourceURI = null;
+        for (int i = 0; i < 1000; i++) {
+            ObservableList<String> list = FXCollections.observableArrayList("controls.css");
+            lists.add(list);
+            sourceURI = registry.register(source, "controls.css", list, watcher);
+            // registering twice the same list is a no-op
+            registry.register(source, "controls.css", list, watcher);
+        }
+
+        assertEquals(1, registry.size());
+        assertEquals(1, watcher.monitored.size());
+        assertEquals(1000, registry.stylesheetsOf(source).size());
+        assertTrue(registry.isSourceURI(sourceURI));
+
+        // a modification of the source swaps all the lists in one batch
+        watcher.monitored.get(0).run();
+        assertEquals(1, fxTasks.size());
+        fxTasks.get(0).run();
+        for (ObservableList<String> list : lists) {
+            assertEquals(sourceURI, list.get(0));
+        }
+    }
+
+    @Test
+    public void publishedVersionsReplaceThePreviousOnes() {
+        List<Runnable> fxTasks = new ArrayList<>();
+        StyleSheetRegistry registry = new StyleSheetRegistry(new StyleSheetSwapBatcher(fxTasks::add));
+        CountingPathsWatcher watcher = new CountingPathsWatcher();
+        Path source = Paths.get("src", "test", "resources", "fr", "brouillard", "oss", "cssfx", "test", "pane.css").toAbsolutePath().normalize();
+        ObservableList<String> list = FXCollections.observableArrayList("pane.css");
+        assertEquals(source.toUri().toString(), registry.register(source, "pane.css", list, watcher));
+        StyleSheetStore store = StyleSheetStore.shared();
+
+        try {
+            String first = store.publish(source, ".pane {}".getBytes(StandardCharsets.UTF_8));
+            watcher.monitored.get(0).run();
+            fxTasks.remove(0).run();
+            assertEquals(first, list.get(0));
+            assertTrue(registry.isSourceURI(first));
+
+            String second = store.publish(source, ".pane { -fx-padding: 1; }".getBytes(StandardCharsets.UTF_8));
+            watcher.monitored.get(0).run();
+            fxTasks.remove(0).run();
+            assertEquals(List.of(second), list);
+        } finally {
+            store.evict(source);
+        }
+    }
+
+    @Test
+    public void modificationIsReloadedInTheListsOfTheNotifyingWatcher() {
+        List<Runnable> fxTasks = new ArrayList<>();
+        StyleSheetRegistry registry = new StyleSheetRegistry(new StyleSheetSwapBatcher(fxTasks::add));
+        CountingPathsWatcher first = new CountingPathsWatcher();
+        CountingPathsWatcher second = new CountingPathsWatcher();
+        Path source = Paths.get("src", "test", "resources", "fr", "brouillard", "oss", "cssfx", "test", "pane.css").toAbsolutePath().normalize();
+        List<Integer> firstReloads = new ArrayList<>();
+        List<Integer> secondReloads = new ArrayList<>();
+        registry.addReloadListener(first, (path, lists) -> firstReloads.add(lists));
+        registry.addReloadListener(second, (path, lists) -> secondReloads.add(lists));
+        ObservableList<String> firstList = FXCollections.observableArrayList("pane.css");
+        ObservableList<String> secondList = FXCollections.observableArrayList("pane.css");
+        registry.register(source, "pane.css", firstList, first);
+        registry.register(source, "pane.css", secondList, second);
+        StyleSheetStore store = StyleSheetStore.shared();
+
+        try {
+            store.publish(source, ".pane {}".getBytes(StandardCharsets.UTF_8));
+            first.monitored.get(0).run();
+            fxTasks.forEach(Runnable::run);
+            fxTasks.clear();
+            assertEquals(List.of(1), firstReloads);
+            assertEquals(List.of(), secondReloads);
+            assertEquals(List.of(store.uriOf(source)), firstList);
+            // the modification may have been rejected by the filters of the second watcher
+            assertEquals(List.of("pane.css"), secondList);
+
+            store.publish(source, ".pane { -fx-padding: 1; }".getBytes(StandardCharsets.UTF_8));
+            second.monitored.get(0).run();
+            fxTasks.forEach(Runnable::run);
+            assertEquals(List.of(1), firstReloads);
+            assertEquals(List.of(1), secondReloads);
+            assertEquals(List.of(store.uriOf(source)), secondList);
+            assertNotEquals(firstList, secondList);
+        } finally {
+            store.evict(source);
+        }
+    }
+
+    @Test
+    public void listsOfAnUnregisteredWatcherAreForgotten() {
+        StyleSheetRegistry registry = new StyleSheetRegistry(new StyleSheetSwapBatcher(r -> {}));
+        CountingPathsWatcher stopped = new CountingPathsWatcher();
+        CountingPathsWatcher running = new CountingPathsWatcher();
+        Path source = Paths.get("src", "test", "resources", "controls.css");
+        ObservableList<String> stoppedList = FXCollections.observableArrayList("controls.css");
+        ObservableList<String> runningList = FXCollections.observableArrayList("controls.css");
+        ObservableList<String> sharedList = FXCollections.observableArrayList("controls.css");
+        registry.register(source, "controls.css", stoppedList, stopped);
+        registry.register(source, "controls.css", sharedList, stopped);
+        registry.register(source, "controls.css", runningList, running);
+        registry.register(source, "controls.css", sharedList, running);
+
+        registry.unregister(stopped);
+        assertEquals(stopped.monitored, stopped.unregistered);
+        assertEquals(2, registry.stylesheetsOf(source).size());
+        assertTrue(registry.stylesheetsOf(source).stream().noneMatch(list -> list == stoppedList));
+        assertTrue(running.unregistered.isEmpty());
+
+        registry.unregister(running);
+        assertEquals(0, registry.size());
+        assertEquals(running.monitored, running.unregistered);
+    }
+
+    @Test
+    public void collectedListsAreReleased() throws Exception {
+        StyleSheetRegistry registry = new StyleSheetRegistry(new StyleSheetSwapBatcher(r -> {}));
+        CountingPathsWatcher watcher = new CountingPathsWatcher();
+        Path source = Paths.get("src", "test", "resources", "controls.css");
+
+        JMemoryBuddy.memoryTest(checker -> {
+            ObservableList<String> list = FXCollections.observableArrayList("controls.css");
+            registry.register(source, "controls.css", list, watcher);
+            checker.assertCollectable(list);
+        });
+        // collected references are enqueued asynchronously after the GC
+        long end = System.currentTimeMillis() + 5000;
+        while (registry.size() > 0 && System.currentTimeMillis() < end) {
+            registry.prune();
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, registry.size());
+        assertEquals(1, watcher.unregistered.size());
+        assertEquals(watcher.monitored, watcher.unregistered);
+    }
+
+    private static class CountingPathsWatcher extends PathsWatcher {
+        private final List<Runnable> monitored = new ArrayList<>();
+        private final List<Runnable> unregistered = new ArrayList<>();
+
+        @Override
+        public void monitor(Path directory, Path sourceFile, Runnable action) {
+            monitored.add(action);
+        }
+
+        @Override
+        public void unregister(Path directory, Path sourceFile, Runnable action) {
+            unregistered.add(action);
+        }
+    }
+}
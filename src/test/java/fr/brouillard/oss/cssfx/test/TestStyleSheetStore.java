@@ -0,0 +1,104 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.impl.StyleSheetStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestStyleSheetStore {
+
+    @Test
+    public void publishedContentIsServedFromMemory(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".root {}").toAbsolutePath().normalize();
+        StyleSheetStore store = StyleSheetStore.shared();
+        assertTrue(StyleSheetStore.isSupported());
+
+        String first = store.publish(css, ".root { -fx-padding: 1; }".getBytes(StandardCharsets.UTF_8));
+        String second = store.publish(css, ".root { -fx-padding: 2; }".getBytes(StandardCharsets.UTF_8));
+
+        assertNotEquals(first, second);
+        assertEquals(second, store.uriOf(css));
+        assertEquals(css, store.sourceOf(second));
+        // the disk is not read anymore
+        Files.delete(css);
+        assertEquals(".root { -fx-padding: 2; }", read(new URL(second)));
+        // older versions are served the last content
+        assertEquals(".root { -fx-padding: 2; }", read(new URL(first)));
+        store.evict(css);
+    }
+
+    @Test
+    public void relativeResourcesAreReadFromTheDisk(@TempDir Path directory) throws Exception {
+        Path css = directory.resolve("app.css").toAbsolutePath().normalize();
+        Files.writeString(directory.resolve("other.css"), ".other {}");
+        StyleSheetStore store = StyleSheetStore.shared();
+
+        URL published = new URL(store.publish(css, ".root {}".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(".other {}", read(new URL(published, "other.css")));
+        assertThrows(FileNotFoundException.class, () -> read(new URL(published, "app.bss")));
+        store.evict(css);
+    }
+
+    @Test
+    public void binaryVersionIsServedAsTheBinarySibling(@TempDir Path directory) throws Exception {
+        Path css = directory.resolve("app.css").toAbsolutePath().normalize();
+        Files.writeString(directory.resolve("app.bss"), "outdated");
+        StyleSheetStore store = StyleSheetStore.shared();
+
+        URL published = new URL(store.publish(css, ".root {}".getBytes(StandardCharsets.UTF_8), "binary".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("binary", read(new URL(published, "app.bss")));
+        store.evict(css);
+        assertEquals("outdated", read(new URL(published, "app.bss")));
+    }
+
+    @Test
+    public void evictedSourcesAreServedFromTheDisk(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("app.css"), ".disk {}").toAbsolutePath().normalize();
+        StyleSheetStore store = StyleSheetStore.shared();
+        String uri = store.publish(css, ".memory {}".getBytes(StandardCharsets.UTF_8));
+
+        store.evict(css);
+
+        assertEquals(css.toUri().toString(), store.uriOf(css));
+        assertEquals(".disk {}", read(new URL(uri)));
+    }
+
+    private static String read(URL url) throws Exception {
+        try (InputStream in = url.openStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.impl.StyleSheetValidator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class TestStyleSheetValidator {
+
+    @Test
+    public void validFilesHaveNoErrors() {
+        StyleSheetValidator validator = new StyleSheetValidator();
+
+        assertEquals(List.of(), validator.validate(Paths.get("src", "test", "resources", "fr", "brouillard", "oss", "cssfx", "test", "app.css")));
+    }
+
+    @Test
+    public void syntaxErrorsAreReported(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("broken.css"), ".root { -fx-background-color: red; \n.label { -fx-text-fill }");
+        StyleSheetValidator validator = new StyleSheetValidator();
+
+        List<String> errors = validator.validate(css);
+
+        assertFalse(errors.isEmpty());
+        assertFalse(validator.isValid(css));
+    }
+
+    @Test
+    public void missingFilesAreInvalid(@TempDir Path directory) {
+        StyleSheetValidator validator = new StyleSheetValidator();
+
+        assertFalse(validator.isValid(directory.resolve("missing.css")));
+    }
+
+    @Test
+    public void droppedDeclarationsAreLocated(@TempDir Path directory) throws Exception {
+        Path css = Files.writeString(directory.resolve("broken.css"), ".root { -fx-padding: 1; }\n\n.label {\n  -fx-text-fill: red;\n  -fx-padding 2;\n}");
+
+        List<String> errors = new StyleSheetValidator().validate(css);
+
+        assertEquals(List.of("rule at line 3: 1 of 2 declarations dropped by the parser"), errors);
+    }
+
+    @Test
+    public void errorsAreDetectedWhateverTheLoggingAndFromAnyThread(@TempDir Path directory) throws Exception {
+        Path broken = Files.writeString(directory.resolve("broken.css"), "..root { -fx-text-fill: red; }");
+        StyleSheetValidator validator = new StyleSheetValidator();
+        Logger cssLogger = Logger.getLogger("javafx.css");
+        Level level = cssLogger.getLevel();
+        cssLogger.setLevel(Level.OFF);
+        try {
+            assertFalse(CompletableFuture.supplyAsync(() -> validator.isValid(broken)).get(10, TimeUnit.SECONDS));
+        } finally {
+            cssLogger.setLevel(level);
+        }
+    }
+}
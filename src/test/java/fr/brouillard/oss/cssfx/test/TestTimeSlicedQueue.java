@@ -0,0 +1,84 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.impl.TimeSlicedQueue;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestTimeSlicedQueue {
+
+    @Test
+    public void deepGraphsAreProcessedWithoutRecursion() {
+        int depth = 200_000;
+        Deque<Runnable> pulses = new ArrayDeque<>();
+        AtomicInteger slices = new AtomicInteger();
+        TimeSlicedQueue<Integer>[] queue = new TimeSlicedQueue[1];
+        // each item has one child, like a chain of nested nodes
+        queue[0] = new TimeSlicedQueue<Integer>(level -> {
+            if (level < depth) {
+                queue[0].add(level + 1);
+            }
+        }, Duration.ofNanos(1), pulses::add);
+        queue[0].setSliceListener((processed, pending, elapsed) -> slices.incrementAndGet());
+
+        queue[0].add(1);
+        queue[0].processSlice();
+        while (!pulses.isEmpty()) {
+            pulses.poll().run();
+        }
+
+        assertEquals(depth, queue[0].processedCount());
+        assertEquals(0, queue[0].pendingCount());
+        assertTrue(slices.get() > 1, "the budget must split the work");
+    }
+
+    @Test
+    public void itemsAddedWhileProcessingJoinTheCurrentSlice() {
+        List<String> processed = new ArrayList<>();
+        List<Runnable> pulses = new ArrayList<>();
+        TimeSlicedQueue<String>[] queue = new TimeSlicedQueue[1];
+        queue[0] = new TimeSlicedQueue<String>(item -> {
+            processed.add(item);
+            if (item.equals("root")) {
+                queue[0].add("child");
+                // reentrant calls do not process the child before its parent is done
+                queue[0].processSlice();
+                processed.add("root done");
+            }
+        }, Duration.ZERO, pulses::add);
+
+        queue[0].add("root");
+        queue[0].processSlice();
+
+        assertEquals(List.of("root", "root done", "child"), processed);
+        assertTrue(pulses.isEmpty(), "no budget, everything is processed in one slice");
+    }
+}
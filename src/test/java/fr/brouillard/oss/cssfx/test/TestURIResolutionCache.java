@@ -0,0 +1,93 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.api.URIToPathConverter;
+import fr.brouillard.oss.cssfx.impl.URIResolutionCache;
+import fr.brouillard.oss.cssfx.impl.URIToPathConverters;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TestURIResolutionCache {
+    private final List<URIToPathConverter> converters = Arrays.asList(URIToPathConverters.DEFAULT_CONVERTERS);
+
+    @Test
+    public void resolutionsAreComputedOnce() {
+        URIResolutionCache cache = new URIResolutionCache();
+        AtomicInteger resolutions = new AtomicInteger();
+        Path source = Paths.get("/project/src/main/resources/app.css");
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(source, cache.resolve("file:/project/target/classes/app.css", converters, uri -> {
+                resolutions.incrementAndGet();
+                return source;
+            }));
+        }
+        assertEquals(1, resolutions.get());
+
+        // other converters give other resolutions, kept along with the first ones
+        List<URIToPathConverter> otherConverters = Arrays.asList(URIToPathConverters.DEFAULT_CONVERTERS);
+        for (int i = 0; i < 10; i++) {
+            cache.resolve("file:/project/target/classes/app.css", (i % 2 == 0) ? otherConverters : converters, uri -> {
+                resolutions.incrementAndGet();
+                return source;
+            });
+        }
+        assertEquals(2, resolutions.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void unresolvedURIsAreCachedUntilAFileWithTheSameNameIsCreated() {
+        URIResolutionCache cache = new URIResolutionCache();
+        AtomicInteger resolutions = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(cache.resolve("jar:file:/app/lib/theme.jar!/styles/dark.css", converters, uri -> {
+                resolutions.incrementAndGet();
+                return null;
+            }));
+        }
+        assertEquals(1, resolutions.get());
+
+        cache.fileCreated(Paths.get("/somewhere/else/light.css"));
+        cache.resolve("jar:file:/app/lib/theme.jar!/styles/dark.css", converters, uri -> {
+            resolutions.incrementAndGet();
+            return null;
+        });
+        assertEquals(1, resolutions.get());
+
+        cache.fileCreated(Paths.get("/project/src/main/resources/styles/dark.css"));
+        cache.resolve("jar:file:/app/lib/theme.jar!/styles/dark.css", converters, uri -> {
+            resolutions.incrementAndGet();
+            return null;
+        });
+        assertEquals(2, resolutions.get());
+    }
+}
@@ -25,12 +25,21 @@ import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import fr.brouillard.oss.cssfx.api.URIToPathConverter;
 import fr.brouillard.oss.cssfx.impl.CSSFXMonitor;
+import fr.brouillard.oss.cssfx.impl.GatedExecutor;
+import fr.brouillard.oss.cssfx.impl.StyleSheetSwapBatcher;
 import fr.brouillard.oss.cssfx.impl.URIToPathConverters;
 import fr.brouillard.oss.cssfx.impl.monitoring.PathsWatcher;
+import javafx.collections.ListChangeListener;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestURIStyleUpdater {
 
@@ -46,4 +55,78 @@ public class TestURIStyleUpdater {
             checker.assertCollectable(list);
         });
     }
+
+    @Test
+    public void swapsAreAppliedInOneBatchWithOneChangePerList() {
+        List<Runnable> fxTasks = new ArrayList<>();
+        StyleSheetSwapBatcher batcher = new StyleSheetSwapBatcher(fxTasks::add);
+        List<Integer> batchSizes = new ArrayList<>();
+        List<Map<String, Integer>> batchSources = new ArrayList<>();
+        batcher.addBatchListener((updatedLists, sources) -> {
+            batchSizes.add(updatedLists);
+            batchSources.add(sources);
+        });
+
+        ObservableList<String> first = FXCollections.observableArrayList("a", "other", "b");
+        ObservableList<String> second = FXCollections.observableArrayList("a", "a");
+        ObservableList<String> untouched = FXCollections.observableArrayList("other");
+        AtomicInteger firstChanges = new AtomicInteger();
+        AtomicInteger secondChanges = new AtomicInteger();
+        first.addListener((ListChangeListener<String>) c -> firstChanges.incrementAndGet());
+        second.addListener((ListChangeListener<String>) c -> secondChanges.incrementAndGet());
+
+        new CSSFXMonitor.URIStyleUpdater("a", "aa", first, batcher).run();
+        new CSSFXMonitor.URIStyleUpdater("b", "bb", first, batcher).run();
+        new CSSFXMonitor.URIStyleUpdater("a", "aa", second, batcher).run();
+        new CSSFXMonitor.URIStyleUpdater("a", "aa", untouched, batcher).run();
+
+        assertEquals(1, fxTasks.size());
+        fxTasks.get(0).run();
+
+        assertEquals(Arrays.asList("aa", "other", "bb"), first);
+        assertEquals(Arrays.asList("aa", "aa"), second);
+        assertEquals(Arrays.asList("other"), untouched);
+        assertEquals(1, firstChanges.get());
+        assertEquals(1, secondChanges.get());
+        assertEquals(Arrays.asList(2), batchSizes);
+        // lists are counted once per source, even the ones without the original URI
+        assertEquals(Map.of("aa", 3, "bb", 1), batchSources.get(0));
+
+        // a reload of an already swapped source is a new batch
+        new CSSFXMonitor.URIStyleUpdater("a", "aa", second, batcher).run();
+        assertEquals(2, fxTasks.size());
+        fxTasks.get(1).run();
+        assertEquals(Arrays.asList("aa", "aa"), second);
+        assertEquals(2, secondChanges.get());
+        assertEquals(Arrays.asList(2, 1), batchSizes);
+    }
+
+    @Test
+    public void swapsHeldByAClosedGateAreAppliedInOneBatch() {
+        List<Runnable> fxTasks = new ArrayList<>();
+        GatedExecutor gate = new GatedExecutor(fxTasks::add);
+        StyleSheetSwapBatcher batcher = new StyleSheetSwapBatcher(gate);
+        List<Integer> batchSizes = new ArrayList<>();
+        batcher.addBatchListener((updatedLists, sources) -> batchSizes.add(updatedLists));
+
+        List<ObservableList<String>> lists = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ObservableList<String> stylesheets = FXCollections.observableArrayList("a");
+            lists.add(stylesheets);
+            batcher.swap(stylesheets, "a", "aa");
+        }
+        assertTrue(fxTasks.isEmpty(), "nothing is applied while the gate is closed");
+
+        gate.open();
+        assertEquals(1, fxTasks.size());
+        fxTasks.get(0).run();
+        assertEquals(Arrays.asList(100), batchSizes);
+        for (ObservableList<String> stylesheets : lists) {
+            assertEquals(Arrays.asList("aa"), stylesheets);
+        }
+
+        // once opened, the swaps are scheduled as usual
+        batcher.swap(lists.get(0), "aa", "aa");
+        assertEquals(2, fxTasks.size());
+    }
 }
@@ -0,0 +1,95 @@
+package fr.brouillard.oss.cssfx.test;
+
+/*
+ * #%L
+ * CSSFX
+ * %%
+ * Copyright (C) 2014 - 2020 CSSFX by Matthieu Brouillard
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import fr.brouillard.oss.cssfx.impl.URIToPathConverters;
+import fr.brouillard.oss.cssfx.impl.URIToPathConverters.RuleBasedConverter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TestURIToPathConverters {
+    private final RuleBasedConverter converter = URIToPathConverters.DEFAULT_RULES;
+
+    @Test
+    public void defaultRulesMapBuildOutputsToSources(@TempDir Path project) throws IOException {
+        Path mainCSS = createFile(project.resolve("src/main/resources/styles/app.css"));
+        Path testCSS = createFile(project.resolve("src/test/java/styles/test.css"));
+
+        assertEquals(mainCSS, converter.convert(uriOf(project, "target/classes/styles/app.css")));
+        assertEquals(mainCSS, converter.convert(uriOf(project, "build/resources/main/styles/app.css")));
+        assertEquals(mainCSS, converter.convert(uriOf(project, "out/production/resources/styles/app.css")));
+        assertEquals(testCSS, converter.convert(uriOf(project, "target/test-classes/styles/test.css")));
+        assertEquals(testCSS, converter.convert(uriOf(project, "build/resources/test/styles/test.css")));
+        assertEquals(mainCSS, converter.convert("jar:" + uriOf(project, "target/app-1.0.jar") + "!/styles/app.css"));
+        assertEquals(testCSS, converter.convert("jar:" + uriOf(project, "build/libs/app.jar") + "!/styles/test.css"));
+    }
+
+    @Test
+    public void unmappedURIsAreNotConverted(@TempDir Path project) throws IOException {
+        createFile(project.resolve("src/main/resources/app.css"));
+
+        assertNull(converter.convert(null));
+        assertNull(converter.convert("http://localhost/target/classes/app.css"));
+        assertNull(converter.convert(uriOf(project, "target/classes/missing.css")));
+        assertNull(converter.convert(uriOf(project, "target/classes-backup/app.css")));
+        assertNull(converter.convert(uriOf(project, "bin/main/app.css")));
+    }
+
+    @Test
+    public void addedRulesAreApplied(@TempDir Path project) throws IOException {
+        Path css = createFile(project.resolve("src/main/css/app.css"));
+        RuleBasedConverter extended = converter
+                .withOutputDirectory("bin/main", "src/main/resources", "src/main/css")
+                .withOutputDirectory("/build/css/", "src/main/css");
+
+        assertEquals(css, extended.convert(uriOf(project, "bin/main/app.css")));
+        assertEquals(css, extended.convert(uriOf(project, "build/css/app.css")));
+        // rules are immutable
+        assertNull(converter.convert(uriOf(project, "bin/main/app.css")));
+    }
+
+    @Test
+    public void sourceRootsAreTheDeepestSourceDirectories(@TempDir Path project) throws IOException {
+        Path mainCSS = createFile(project.resolve("src/main/resources/styles/app.css"));
+        Path nested = createFile(project.resolve("modules/ui/src/test/java/styles/test.css"));
+
+        assertEquals(project.resolve("src/main/resources"), converter.sourceRoot(mainCSS));
+        assertEquals(project.resolve("modules/ui/src/test/java"), converter.sourceRoot(nested));
+        assertNull(converter.sourceRoot(project.resolve("styles/app.css")));
+        assertNull(URIToPathConverters.rules().sourceRoot(mainCSS));
+    }
+
+    private static String uriOf(Path project, String relativePath) {
+        return project.resolve(relativePath).toUri().toString();
+    }
+
+    private static Path createFile(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.createFile(file);
+    }
+}